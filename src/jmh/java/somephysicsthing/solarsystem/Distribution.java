@@ -0,0 +1,75 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Ways of laying out the bodies for a benchmark, all inside the same 1200 wide square as {@link App}
+ */
+public enum Distribution {
+    /**
+     * spread evenly over the square
+     */
+    UNIFORM,
+
+    /**
+     * in a handful of tight clumps, so the tree gets deep in a few places and stays shallow elsewhere
+     */
+    CLUSTERED,
+
+    /**
+     * like {@link App}, bodies spread over the square and two heavy ones circling outside it
+     */
+    TWO_HEAVY;
+
+    private static final double SIZE = 600;
+    private static final int CLUSTERS = 8;
+
+    /**
+     * @param p where to add the bodies
+     * @param n how many bodies
+     * @param seed the same seed gives the same bodies
+     * @return the bodies added
+     */
+    @Nonnull
+    ArrayList<Planet> generate(@Nonnull Particles p, @Nonnegative int n, long seed) {
+        var gen = new Random(seed);
+        var planets = new ArrayList<Planet>(n);
+
+        var light = this == TWO_HEAVY ? n - 2 : n;
+        var centreX = new double[CLUSTERS];
+        var centreY = new double[CLUSTERS];
+
+        for (var c = 0; c < CLUSTERS; c++) {
+            centreX[c] = (gen.nextDouble() - 0.5) * SIZE;
+            centreY[c] = (gen.nextDouble() - 0.5) * SIZE;
+        }
+
+        for (var i = 0; i < light; i++) {
+            double x, y;
+
+            if (this == CLUSTERED) {
+                var c = gen.nextInt(CLUSTERS);
+                x = centreX[c] + gen.nextGaussian() * SIZE / 40;
+                y = centreY[c] + gen.nextGaussian() * SIZE / 40;
+            } else {
+                x = (gen.nextDouble() - 0.5) * 2 * SIZE;
+                y = (gen.nextDouble() - 0.5) * 2 * SIZE;
+            }
+
+            var vx = (gen.nextDouble() - 0.5) * 1000;
+            var vy = (gen.nextDouble() - 0.5) * 1000;
+
+            planets.add(new Planet(p, new Vec2(x, y), new Vec2(vx, vy), gen.nextDouble()));
+        }
+
+        if (this == TWO_HEAVY) {
+            planets.add(new Planet(p, new Vec2(0, 1000), new Vec2(-500, 0), 1e9));
+            planets.add(new Planet(p, new Vec2(0, -1000), new Vec2(500, 0), 1e9));
+        }
+
+        return planets;
+    }
+}
@@ -0,0 +1,88 @@
+package somephysicsthing.solarsystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import somephysicsthing.solarsystem.quadtree.Direction;
+import somephysicsthing.solarsystem.quadtree.Quadtree;
+import somephysicsthing.solarsystem.quadtree.QuadtreeFolder;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Building and walking the object quadtree
+ */
+@State(Scope.Benchmark)
+public class QuadtreeBenchmark {
+    private static final double ARENA = 6000;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int bodies;
+
+    @Param({"UNIFORM", "CLUSTERED", "TWO_HEAVY"})
+    public Distribution distribution;
+
+    private ArrayList<Planet> planets;
+    private Quadtree<Planet> tree;
+
+    /**
+     * counts the bodies in the tree
+     */
+    private static class CountElems implements QuadtreeFolder<Planet, Integer> {
+        @Nonnull
+        @Override
+        public Integer visitEmpty(@Nonnull List<Direction> path) {
+            return 0;
+        }
+
+        @Nonnull
+        @Override
+        public Integer visitLeaf(@Nonnull List<Direction> path, @Nonnull List<Planet> elems) {
+            return elems.size();
+        }
+
+        @Nonnull
+        @Override
+        public Integer visitQuad(@Nonnull List<Direction> path, Integer nw, Integer ne, Integer sw, Integer se) {
+            return nw + ne + sw + se;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.planets = this.distribution.generate(new Particles(this.bodies), this.bodies, 0);
+        this.tree = this.build();
+    }
+
+    private Quadtree<Planet> build() {
+        var tree = new Quadtree<Planet>(ARENA, ARENA);
+
+        for (var planet : this.planets) {
+            tree.insert(planet);
+        }
+
+        return tree;
+    }
+
+    @Benchmark
+    public Quadtree<Planet> insert() {
+        return this.build();
+    }
+
+    @Benchmark
+    public Integer applyFold() {
+        return this.tree.applyFold(new CountElems());
+    }
+
+    @Benchmark
+    public HashSet<List<Direction>> getPathsFitting() {
+        // stop at regions about the size of a pixel of the window
+        return this.tree.getPathsFitting((region) -> region.getW() < ARENA / 600);
+    }
+}
@@ -0,0 +1,44 @@
+package somephysicsthing.solarsystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import somephysicsthing.solarsystem.bounded.Bounded;
+
+import java.util.ArrayList;
+
+/**
+ * One step of the simulation, with the default engine and integrator
+ */
+@State(Scope.Benchmark)
+public class SimulationBenchmark {
+    private static final double ARENA = 6000;
+    private static final double TIMESTEP = 0.01;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int bodies;
+
+    @Param({"UNIFORM", "CLUSTERED", "TWO_HEAVY"})
+    public Distribution distribution;
+
+    @Param({"0.5", "0.8", "1.2"})
+    public double theta;
+
+    private MassSimulation simulation;
+
+    // the bodies are put back every iteration so later iterations don't measure a more spread out system
+    @Setup(Level.Iteration)
+    public void setup() {
+        var p = new Particles(this.bodies);
+        this.distribution.generate(p, this.bodies, 0);
+        this.simulation = new MassSimulation(p, ARENA, ARENA, this.theta, 1e-6f);
+    }
+
+    @Benchmark
+    public ArrayList<Bounded> runSimulation() {
+        return this.simulation.runSimulation(TIMESTEP);
+    }
+}
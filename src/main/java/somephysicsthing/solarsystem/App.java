@@ -1,24 +1,39 @@
 package somephysicsthing.solarsystem;
 
 import somephysicsthing.solarsystem.bounded.Bounded;
-import somephysicsthing.solarsystem.bounded.Point;
 import somephysicsthing.solarsystem.bounded.Rectangle;
 
 import javax.annotation.Nonnull;
-import java.awt.*;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class App {
+    // how often the screen picks up the latest frame, about the display's refresh rate
+    private static final int FRAME_MILLIS = 16;
+    private static final int REGION_RGB = 0x003300;
+    // nodes of the tree smaller than this many pixels on screen are drawn as one body
+    private static final double DETAIL_PIXELS = 1;
+
     private double arenaSize = 6000;
     private double scaleFactor = 10;
     private double solarSystemSize = this.arenaSize / this.scaleFactor;
 
+    private Particles particles;
     private ArrayList<Planet> planets;
+    private MassSimulation simulation;
+    private TimestepController timesteps = new TimestepController(0.001, 0.1);
     private SolarSystem solarSystem;
 
+    // frames go from the simulation thread to the screen through this, neither waits for the other
+    private final TripleBuffer<Frame> frames = new TripleBuffer<>(Frame::new);
+    // the step of the last frame drawn, only touched by the render thread
+    private long drawnStep = 0;
+
+    // draw crowded parts of the tree as one body per node rather than every body in them
+    private boolean levelOfDetail = true;
+
     private Bounded simulationArea = new Rectangle(0, 0,
             this.arenaSize, this.arenaSize
     );
@@ -53,6 +68,7 @@ public class App {
 
         @Nonnull public Planet mkPlanet() {
             return new Planet(
+                    App.this.particles,
                     this.mkCoords(),
                     this.mkVelo(),
                     this.mkMass()
@@ -63,64 +79,114 @@ public class App {
     private App() {
         var planetGen = new PlanetGenerator();
 
+        this.particles = new Particles(10003);
+
         this.planets = IntStream.rangeClosed(0, 10000)
                 .mapToObj((_idx) -> planetGen.mkPlanet())
                 .collect(Collectors.toCollection(ArrayList::new));
 
-        this.planets.add(new Planet(new Vec2(0, 1000), new Vec2(-500, 0), 1000000000.0f, "#00ffff"));
-        this.planets.add(new Planet(new Vec2(0, -1000), new Vec2(500, 0), 1000000000.0f, "#00ff00"));
+        this.planets.add(new Planet(this.particles, new Vec2(0, 1000), new Vec2(-500, 0), 1000000000.0f, "#00ffff"));
+        this.planets.add(new Planet(this.particles, new Vec2(0, -1000), new Vec2(500, 0), 1000000000.0f, "#00ff00"));
+
+        this.simulation = new MassSimulation(this.particles, this.arenaSize, this.arenaSize);
 
         this.solarSystem = new SolarSystem((int) this.solarSystemSize, (int) this.solarSystemSize);
     }
 
-    private void drawPlanet(Planet p) {
-        var positionOnScreen = this.simulationArea.scaleBetween(this.solarSystemArea, p).getPos();
-
-        if (!this.solarSystemArea.contains(new Point(positionOnScreen))) {
-            return;
+    /**
+     * Draw a frame into the window's pixels, scaling from the simulation area to the solar system area
+     * like {@link Bounded#scaleBetween} but without making anything for every body
+     */
+    private void drawFrame(@Nonnull Raster raster, @Nonnull Frame frame) {
+        var scaleX = this.solarSystemArea.getW() / this.simulationArea.getW();
+        var scaleY = this.solarSystemArea.getH() / this.simulationArea.getH();
+        var offsetX = this.solarSystemArea.getX() - this.simulationArea.getX() * scaleX;
+        var offsetY = this.solarSystemArea.getY() - this.simulationArea.getY() * scaleY;
+
+        var left = this.solarSystemArea.left();
+        var right = this.solarSystemArea.right();
+        var bottom = this.solarSystemArea.bottom();
+        var top = this.solarSystemArea.top();
+
+        for (var i = 0; i < frame.regionCount; i++) {
+            var w = frame.regionW[i] * scaleX;
+            var h = frame.regionH[i] * scaleY;
+
+            // my rectangles are represented by the centre point, width and height
+            // awt rectangles are represented by the upper left point, width and height
+            var x = frame.regionX[i] * scaleX + offsetX - w / 2;
+            var y = frame.regionY[i] * scaleY + offsetY - h / 2;
+
+            raster.drawRectangle((int) x, (int) y, (int) w, (int) h, REGION_RGB);
         }
 
-        this.solarSystem.drawSolarObject(
-                positionOnScreen.x,
-                positionOnScreen.y,
-                p.getDiameter(),
-                p.colour
-        );
-    }
-
-    private void drawRegion(Bounded r) {
-        r = this.simulationArea.scaleBetween(this.solarSystemArea, r);
-
-        // my rectangles are represented by the centre point, width and height
-        // awt rectangles are represented by the upper left point, width and height
+        for (var i = 0; i < frame.count; i++) {
+            var x = frame.x[i] * scaleX + offsetX;
+            var y = frame.y[i] * scaleY + offsetY;
 
-        Shape rect = new java.awt.Rectangle((int) r.left(), (int) r.bottom(), (int) r.getW(), (int) r.getH());
+            if (x < left || x > right || y < bottom || y > top)
+                continue;
 
-        this.solarSystem.drawExtra(rect);
+            raster.fillCircle((int) x, (int) y, (int) frame.diameter[i], frame.rgb[i]);
+        }
     }
 
-    private void innerMain() throws InterruptedException {
+    /**
+     * Runs the simulation as fast as it can on its own thread, publishing a frame after every step
+     */
+    private void simulate() {
+        var step = 0L;
+
         while (!this.planets.isEmpty()) {
             // remove planets that exceed the edge of the world
             this.planets.removeIf((Planet p) -> !p.isValid(this.arenaSize, this.arenaSize));
+            this.particles.retain(this.planets);
 
             // System.out.println(this.planets);
 
-            for (var planet : this.planets) {
-                this.drawPlanet(planet);
+            var regions = this.simulation.runSimulation(this.timesteps);
+            step++;
+
+            var frame = this.frames.getBack();
+            var tree = this.simulation.getTree();
+            // there's no tree when there are few enough bodies to sum directly, and then few enough to draw them all
+            if (this.levelOfDetail && tree != null) {
+                var minSize = DETAIL_PIXELS * this.simulationArea.getW() / this.solarSystemArea.getW();
+                frame.captureLevelOfDetail(step, tree, this.planets, regions, minSize);
+            } else {
+                frame.capture(step, this.planets, regions);
             }
+            this.frames.publish();
+        }
+    }
 
-            var regions = (new MassSimulation<>(this.planets, this.arenaSize, this.arenaSize)).runSimulation(0.1f);
-
-            for (Bounded bounded : regions.values()) {
-                this.drawRegion(bounded);
+    /**
+     * Draws the newest frame at display rate on its own thread, frames published in between are never drawn
+     */
+    private void render() {
+        while (true) {
+            var started = System.nanoTime();
+            var frame = this.frames.getLatest();
+
+            if (frame.step != this.drawnStep) {
+                this.drawnStep = frame.step;
+                this.solarSystem.renderFrame((raster) -> this.drawFrame(raster, frame));
             }
 
-            this.solarSystem.finishedDrawing();
+            var left = FRAME_MILLIS - (System.nanoTime() - started) / 1000000;
+
+            try {
+                Thread.sleep(Math.max(left, 1));
+            } catch (InterruptedException e) {
+                return;
+            }
         }
     }
 
-    public static void main(String[] args) throws InterruptedException {
-        (new App()).innerMain();
+    public static void main(String[] args) {
+        var app = new App();
+
+        new Thread(app::render, "render").start();
+        new Thread(app::simulate, "simulation").start();
     }
 }
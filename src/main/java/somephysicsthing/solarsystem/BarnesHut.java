@@ -0,0 +1,364 @@
+package somephysicsthing.solarsystem;
+
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Barnes-Hut, every body walks the tree and nodes far enough away are treated as a single mass.
+ *
+ * In group walk mode the tree is walked once per leaf instead, opening nodes by their distance from the leaf
+ * rather than from each body, and the list of nodes and bodies it finds is swept for every body in the leaf.
+ */
+class BarnesHut implements GravityEngine {
+    private final double theta;
+    private final double g;
+    private final boolean groupWalk;
+
+    /**
+     * @param theta opening angle, nodes smaller than theta times their distance aren't opened
+     * @param g the gravitational constant
+     */
+    BarnesHut(double theta, double g) {
+        this(theta, g, false);
+    }
+
+    /**
+     * @param groupWalk if true bodies in the same leaf share one walk of the tree
+     */
+    BarnesHut(double theta, double g, boolean groupWalk) {
+        this.theta = theta;
+        this.g = g;
+        this.groupWalk = groupWalk;
+    }
+
+    @Override
+    public void prepare(@Nonnull FlatQuadtree tree, @Nonnegative int n, @Nonnull ForkJoinPool pool) {
+        // everything needed is already on the tree
+    }
+
+    @Nonnull
+    @Override
+    public ForceEvaluator newEvaluator(@Nonnull FlatQuadtree tree) {
+        if (this.groupWalk)
+            return new GroupWalk(tree);
+        return new TreeWalk(tree);
+    }
+
+    private class TreeWalk extends ForceEvaluator {
+        @Nonnull final FlatQuadtree tree;
+
+        // a walk pushes at most three siblings per level plus the four children of the deepest node
+        @Nonnull final int[] stack;
+
+        // the correction found by the last call to quadrupole
+        double qax, qay;
+
+        TreeWalk(@Nonnull FlatQuadtree tree) {
+            this.tree = tree;
+            this.stack = new int[3 * tree.getMaxDepth() + 5];
+        }
+
+        /**
+         * Walk the tree once, opening nodes and accumulating the acceleration as we go
+         */
+        @Override
+        void accelerate(int self, double openX, double openY, double px, double py) {
+            var tree = this.tree;
+            var g = BarnesHut.this.g;
+            var theta = BarnesHut.this.theta;
+            var quadrupoles = tree.hasQuadrupoles();
+            var findPotential = this.findPotential;
+            var stack = this.stack;
+            var ax = 0.0;
+            var ay = 0.0;
+            var potential = 0.0;
+
+            var top = 0;
+            stack[top++] = tree.root();
+
+            while (top > 0) {
+                var node = stack[--top];
+
+                if (tree.getCount(node) == 0)
+                    continue;
+
+                if (tree.isLeaf(node)) {
+                    for (var k = tree.getFirst(node); k < tree.getFirst(node) + tree.getCount(node); k++) {
+                        if (tree.getBody(k) == self)
+                            continue;
+
+                        var f = g * tree.getBodyMass(k) * kernel(tree.getBodyX(k) - px, tree.getBodyY(k) - py);
+                        ax += (tree.getBodyX(k) - px) * f;
+                        ay += (tree.getBodyY(k) - py) * f;
+
+                        if (findPotential) {
+                            potential += tree.getBodyMass(k)
+                                    * potentialKernel(tree.getBodyX(k) - px, tree.getBodyY(k) - py);
+                        }
+                    }
+
+                    continue;
+                }
+
+                var avgWidth = tree.getHalfWidth(node) + tree.getHalfHeight(node);
+                var ox = tree.getCentreX(node) - openX;
+                var oy = tree.getCentreY(node) - openY;
+
+                if (avgWidth * avgWidth < theta * theta * (ox * ox + oy * oy)) {
+                    var dx = tree.getCentreOfMassX(node) - px;
+                    var dy = tree.getCentreOfMassY(node) - py;
+                    var f = g * tree.getMass(node) * kernel(dx, dy);
+                    ax += dx * f;
+                    ay += dy * f;
+
+                    if (findPotential) {
+                        potential += tree.getMass(node) * potentialKernel(dx, dy);
+                    }
+
+                    if (quadrupoles) {
+                        this.quadrupole(node, -dx, -dy);
+                        ax += this.qax;
+                        ay += this.qay;
+                    }
+                    continue;
+                }
+
+                // pushed backwards so they're popped NW, NE, SW, SE
+                for (var c = tree.getChild(node) + 3; c >= tree.getChild(node); c--) {
+                    stack[top++] = c;
+                }
+            }
+
+            if (Double.isNaN(ax) || Double.isNaN(ay)) {
+                ax = 0;
+                ay = 0;
+            }
+
+            this.ax = ax;
+            this.ay = ay;
+            this.potential = g * potential;
+        }
+
+        /**
+         * The quadrupole correction to the acceleration from a node.
+         *
+         * With the potential of a unit mass at distance r being h(r^2) = 2 * g * r^(1/2), expanding the potential
+         * of the node about its centre of mass to second order and taking the gradient gives
+         * a = -(2 * (tr(Q) * d + 2 * Q * d) * h'' + 4 * (d . Q * d) * d * h''')
+         * the correction is left out inside a distance of 1 where the force law changes
+         * @param dx x distance from the node's centre of mass to the point being accelerated
+         * @param dy y distance from the node's centre of mass to the point being accelerated
+         */
+        void quadrupole(int node, double dx, double dy) {
+            var tree = this.tree;
+            var r2 = dx * dx + dy * dy;
+
+            if (r2 < 1.0) {
+                this.qax = 0;
+                this.qay = 0;
+                return;
+            }
+
+            var qxx = tree.getQuadrupoleXX(node);
+            var qxy = tree.getQuadrupoleXY(node);
+            var qyy = tree.getQuadrupoleYY(node);
+
+            var invDist = 1.0 / Math.sqrt(r2);
+            var invDist3 = invDist * invDist * invDist;
+            var rootInvDist = Math.sqrt(invDist);
+
+            // h'' = -3/8 g r^(-7/2), h''' = 21/32 g r^(-11/2)
+            var h2 = -0.375 * BarnesHut.this.g * invDist3 * rootInvDist;
+            var h3 = 0.65625 * BarnesHut.this.g * invDist3 * invDist * invDist * rootInvDist;
+
+            var trace = qxx + qyy;
+            var qdx = qxx * dx + qxy * dy;
+            var qdy = qxy * dx + qyy * dy;
+            var dqd = dx * qdx + dy * qdy;
+
+            this.qax = -(2 * (trace * dx + 2 * qdx) * h2 + 4 * dqd * dx * h3);
+            this.qay = -(2 * (trace * dy + 2 * qdy) * h2 + 4 * dqd * dy * h3);
+        }
+    }
+
+    /**
+     * Walks the tree once for the leaf of the body being accelerated and keeps the interaction list while
+     * bodies from the same leaf follow each other. Bodies outside the tree walk it on their own.
+     */
+    private class GroupWalk extends TreeWalk {
+        // the leaf the lists are for
+        private int group = FlatQuadtree.NO_CHILD;
+
+        // nodes far enough away from every body in the group
+        @Nonnull private int[] cellNode = new int[64];
+        @Nonnull private double[] cellX = new double[64];
+        @Nonnull private double[] cellY = new double[64];
+        @Nonnull private double[] cellMass = new double[64];
+        private int cellCount;
+
+        // bodies in the leaves near the group
+        @Nonnull private int[] sourceBody = new int[64];
+        @Nonnull private double[] sourceX = new double[64];
+        @Nonnull private double[] sourceY = new double[64];
+        @Nonnull private double[] sourceMass = new double[64];
+        private int sourceCount;
+
+        // where the group's own bodies start in the sources
+        private int ownFirst;
+
+        @Nonnull private final BlockKernel kernel = BlockKernel.create();
+
+        GroupWalk(@Nonnull FlatQuadtree tree) {
+            super(tree);
+        }
+
+        @Override
+        void accelerate(int self, double openX, double openY, double px, double py) {
+            var leaf = this.tree.getLeaf(self);
+
+            if (leaf == FlatQuadtree.NO_CHILD) {
+                super.accelerate(self, openX, openY, px, py);
+                return;
+            }
+
+            if (leaf != this.group) {
+                this.walk(leaf);
+            }
+
+            var g = BarnesHut.this.g;
+            var kernel = this.kernel;
+            var ax = 0.0;
+            var ay = 0.0;
+
+            kernel.accelerate(px, py, this.cellX, this.cellY, this.cellMass, 0, this.cellCount);
+            ax += g * kernel.ax;
+            ay += g * kernel.ay;
+
+            if (this.tree.hasQuadrupoles()) {
+                for (var c = 0; c < this.cellCount; c++) {
+                    this.quadrupole(this.cellNode[c], px - this.cellX[c], py - this.cellY[c]);
+                    ax += this.qax;
+                    ay += this.qay;
+                }
+            }
+
+            // the sources either side of the body itself
+            var own = this.ownFirst;
+            while (this.sourceBody[own] != self) {
+                own++;
+            }
+
+            kernel.accelerate(px, py, this.sourceX, this.sourceY, this.sourceMass, 0, own);
+            ax += g * kernel.ax;
+            ay += g * kernel.ay;
+
+            kernel.accelerate(px, py, this.sourceX, this.sourceY, this.sourceMass, own + 1, this.sourceCount);
+            ax += g * kernel.ax;
+            ay += g * kernel.ay;
+
+            if (Double.isNaN(ax) || Double.isNaN(ay)) {
+                ax = 0;
+                ay = 0;
+            }
+
+            this.ax = ax;
+            this.ay = ay;
+
+            if (this.findPotential) {
+                var potential = kernel.potential(px, py, this.cellX, this.cellY, this.cellMass, 0, this.cellCount)
+                        + kernel.potential(px, py, this.sourceX, this.sourceY, this.sourceMass, 0, own)
+                        + kernel.potential(px, py, this.sourceX, this.sourceY, this.sourceMass, own + 1, this.sourceCount);
+                this.potential = g * potential;
+            }
+        }
+
+        /**
+         * Build the interaction lists for a leaf. Nodes are opened using their distance to the nearest
+         * point of the leaf, so anything accepted here would have been accepted by every body in it
+         */
+        private void walk(int leaf) {
+            var tree = this.tree;
+            var theta = BarnesHut.this.theta;
+            var stack = this.stack;
+            var leafX = tree.getCentreX(leaf);
+            var leafY = tree.getCentreY(leaf);
+            var leafHalfW = tree.getHalfWidth(leaf);
+            var leafHalfH = tree.getHalfHeight(leaf);
+
+            this.group = leaf;
+            this.cellCount = 0;
+            this.sourceCount = 0;
+
+            var top = 0;
+            stack[top++] = tree.root();
+
+            while (top > 0) {
+                var node = stack[--top];
+
+                if (tree.getCount(node) == 0)
+                    continue;
+
+                if (tree.isLeaf(node)) {
+                    if (node == leaf) {
+                        this.ownFirst = this.sourceCount;
+                    }
+
+                    for (var k = tree.getFirst(node); k < tree.getFirst(node) + tree.getCount(node); k++) {
+                        this.addSource(tree.getBody(k), tree.getBodyX(k), tree.getBodyY(k), tree.getBodyMass(k));
+                    }
+
+                    continue;
+                }
+
+                var avgWidth = tree.getHalfWidth(node) + tree.getHalfHeight(node);
+                var ox = Math.max(Math.abs(tree.getCentreX(node) - leafX) - leafHalfW, 0.0);
+                var oy = Math.max(Math.abs(tree.getCentreY(node) - leafY) - leafHalfH, 0.0);
+
+                if (avgWidth * avgWidth < theta * theta * (ox * ox + oy * oy)) {
+                    this.addCell(node);
+                    continue;
+                }
+
+                for (var c = tree.getChild(node) + 3; c >= tree.getChild(node); c--) {
+                    stack[top++] = c;
+                }
+            }
+        }
+
+        private void addCell(int node) {
+            if (this.cellCount == this.cellNode.length) {
+                var capacity = this.cellCount * 2;
+                this.cellNode = Arrays.copyOf(this.cellNode, capacity);
+                this.cellX = Arrays.copyOf(this.cellX, capacity);
+                this.cellY = Arrays.copyOf(this.cellY, capacity);
+                this.cellMass = Arrays.copyOf(this.cellMass, capacity);
+            }
+
+            var c = this.cellCount++;
+            this.cellNode[c] = node;
+            this.cellX[c] = this.tree.getCentreOfMassX(node);
+            this.cellY[c] = this.tree.getCentreOfMassY(node);
+            this.cellMass[c] = this.tree.getMass(node);
+        }
+
+        private void addSource(int body, double x, double y, double mass) {
+            if (this.sourceCount == this.sourceBody.length) {
+                var capacity = this.sourceCount * 2;
+                this.sourceBody = Arrays.copyOf(this.sourceBody, capacity);
+                this.sourceX = Arrays.copyOf(this.sourceX, capacity);
+                this.sourceY = Arrays.copyOf(this.sourceY, capacity);
+                this.sourceMass = Arrays.copyOf(this.sourceMass, capacity);
+            }
+
+            var b = this.sourceCount++;
+            this.sourceBody[b] = body;
+            this.sourceX[b] = x;
+            this.sourceY[b] = y;
+            this.sourceMass[b] = mass;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Runs the same kind of simulation as {@link App} without a window and times it, for machines without a display
+ * and for comparing performance between runs.
+ *
+ * Usage: Batch [bodies] [steps] [timestep] [seed]
+ */
+public class Batch {
+    private static final double ARENA_SIZE = 6000;
+    // bodies start in the middle tenth of the arena like in App
+    private static final double START_SIZE = ARENA_SIZE / 10;
+
+    private static final int DEFAULT_BODIES = 10003;
+    private static final int DEFAULT_STEPS = 1000;
+    private static final double DEFAULT_TIMESTEP = 0.1;
+    private static final long DEFAULT_SEED = 0;
+
+    private final int bodies;
+    private final int steps;
+    private final double timestep;
+
+    @Nonnull private final Particles particles;
+    @Nonnull private final ArrayList<Planet> planets;
+    @Nonnull private final MassSimulation simulation;
+
+    // time spent removing bodies that left the world
+    private long removeNanos = 0;
+
+    private Batch(int bodies, int steps, double timestep, long seed) {
+        this.bodies = bodies;
+        this.steps = steps;
+        this.timestep = timestep;
+        this.particles = new Particles(bodies);
+        this.planets = new ArrayList<>(bodies);
+
+        var gen = new Random(seed);
+
+        for (var i = 0; i < bodies - 2; i++) {
+            var pos = new Vec2((gen.nextDouble() - 0.5) * 2 * START_SIZE, (gen.nextDouble() - 0.5) * 2 * START_SIZE);
+            var vel = new Vec2((gen.nextDouble() - 0.5) * 1000, (gen.nextDouble() - 0.5) * 1000);
+            this.planets.add(new Planet(this.particles, pos, vel, gen.nextDouble()));
+        }
+
+        this.planets.add(new Planet(this.particles, new Vec2(0, 1000), new Vec2(-500, 0), 1000000000.0));
+        this.planets.add(new Planet(this.particles, new Vec2(0, -1000), new Vec2(500, 0), 1000000000.0));
+
+        this.simulation = new MassSimulation(this.particles, ARENA_SIZE, ARENA_SIZE);
+    }
+
+    /**
+     * @return how long the run took in nanoseconds
+     */
+    private long run() {
+        var started = System.nanoTime();
+
+        for (var step = 0; step < this.steps; step++) {
+            var removing = System.nanoTime();
+            this.planets.removeIf((Planet p) -> !p.isValid(ARENA_SIZE, ARENA_SIZE));
+            this.particles.retain(this.planets);
+            this.removeNanos += System.nanoTime() - removing;
+
+            this.simulation.runSimulation(this.timestep);
+        }
+
+        return System.nanoTime() - started;
+    }
+
+    private void report(long elapsed) {
+        var seconds = elapsed / 1e9;
+
+        System.out.printf("%d bodies, %d left after %d steps of %s%n",
+                this.bodies, this.planets.size(), this.steps, this.timestep);
+        System.out.printf("%.3f s, %.2f steps/s, %.3f ms/step%n",
+                seconds, this.steps / seconds, elapsed / 1e6 / this.steps);
+
+        var accounted = this.removeNanos;
+        for (var phase : MassSimulation.Phase.values()) {
+            var nanos = this.simulation.getPhaseNanos(phase);
+            accounted += nanos;
+            this.reportPhase(phase.name().toLowerCase(), nanos, elapsed);
+        }
+
+        this.reportPhase("remove", this.removeNanos, elapsed);
+        this.reportPhase("other", elapsed - accounted, elapsed);
+    }
+
+    private void reportPhase(@Nonnull String name, long nanos, long elapsed) {
+        System.out.printf("  %-8s %10.3f s %6.1f%% %10.3f ms/step%n",
+                name, nanos / 1e9, 100.0 * nanos / elapsed, nanos / 1e6 / this.steps);
+    }
+
+    public static void main(String[] args) {
+        // nothing here draws, but make sure nothing that gets loaded tries to find a display either
+        System.setProperty("java.awt.headless", "true");
+
+        int bodies, steps;
+        double timestep;
+        long seed;
+
+        try {
+            bodies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BODIES;
+            steps = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEPS;
+            timestep = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TIMESTEP;
+            seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+        } catch (NumberFormatException e) {
+            System.err.println("usage: Batch [bodies] [steps] [timestep] [seed]");
+            System.exit(2);
+            return;
+        }
+
+        if (bodies < 2 || steps < 1 || !(timestep > 0)) {
+            System.err.println("need at least 2 bodies, 1 step and a positive timestep");
+            System.exit(2);
+            return;
+        }
+
+        var batch = new Batch(bodies, steps, timestep, seed);
+        batch.report(batch.run());
+    }
+}
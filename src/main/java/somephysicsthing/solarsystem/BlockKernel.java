@@ -0,0 +1,81 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Sums the force law over a packed block of sources, this is the inner loop of the leaf and direct parts of a step.
+ *
+ * This is the scalar version, {@link #create} gives a vectorised one instead if the JVM has the vector API
+ */
+class BlockKernel {
+    private static final String VECTOR_KERNEL = "somephysicsthing.solarsystem.VectorKernel";
+
+    // the sum found by the last call to accelerate, not yet multiplied by g
+    double ax, ay;
+
+    /**
+     * @return a kernel using the vector API if it's available, otherwise the scalar one
+     */
+    @Nonnull
+    static BlockKernel create() {
+        try {
+            return (BlockKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not built, or the jdk.incubator.vector module wasn't added
+            return new BlockKernel();
+        }
+    }
+
+    /**
+     * Sum m * (dx, dy) * kernel(dx, dy) over the sources [from, to)
+     * @param px x coordinate to calculate the acceleration at
+     * @param py y coordinate to calculate the acceleration at
+     */
+    void accelerate(double px, double py, @Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m, int from, int to) {
+        this.ax = 0;
+        this.ay = 0;
+        this.accelerateScalar(px, py, x, y, m, from, to);
+    }
+
+    /**
+     * Add the sources [from, to) onto the current sum one at a time
+     */
+    final void accelerateScalar(double px, double py, @Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m,
+                                int from, int to) {
+        var ax = this.ax;
+        var ay = this.ay;
+
+        for (var i = from; i < to; i++) {
+            var dx = x[i] - px;
+            var dy = y[i] - py;
+            var f = m[i] * ForceEvaluator.kernel(dx, dy);
+            ax += dx * f;
+            ay += dy * f;
+        }
+
+        this.ax = ax;
+        this.ay = ay;
+    }
+
+    /**
+     * Sum m * potentialKernel(dx, dy) over the sources [from, to), this is only needed for diagnostics
+     * so it isn't vectorised
+     */
+    final double potential(double px, double py, @Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m,
+                           int from, int to) {
+        var potential = 0.0;
+
+        for (var i = from; i < to; i++) {
+            potential += m[i] * ForceEvaluator.potentialKernel(x[i] - px, y[i] - py);
+        }
+
+        return potential;
+    }
+
+    /**
+     * @return if this kernel uses the vector API
+     */
+    boolean isVectorised() {
+        return false;
+    }
+}
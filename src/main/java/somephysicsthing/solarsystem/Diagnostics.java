@@ -0,0 +1,74 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Energy and momentum of every body at one point in the simulation, summed up while the forces are evaluated
+ * so they don't need a pass of their own. The potential energy is as good as the engine's approximation
+ */
+class Diagnostics {
+    private double kinetic;
+    private double potential;
+    private double momentumX, momentumY;
+    private double angularMomentum;
+
+    /**
+     * Add a body
+     * @param potential the potential at the body from every other body, per unit mass
+     */
+    void add(double x, double y, double vx, double vy, double mass, double potential) {
+        this.kinetic += 0.5 * mass * (vx * vx + vy * vy);
+        // every pair is seen from both ends
+        this.potential += 0.5 * mass * potential;
+        this.momentumX += mass * vx;
+        this.momentumY += mass * vy;
+        this.angularMomentum += mass * (x * vy - y * vx);
+    }
+
+    /**
+     * Add the bodies summed by another one
+     */
+    void add(@Nonnull Diagnostics other) {
+        this.kinetic += other.kinetic;
+        this.potential += other.potential;
+        this.momentumX += other.momentumX;
+        this.momentumY += other.momentumY;
+        this.angularMomentum += other.angularMomentum;
+    }
+
+    double getKinetic() {
+        return this.kinetic;
+    }
+
+    double getPotential() {
+        return this.potential;
+    }
+
+    /**
+     * @return kinetic plus potential energy
+     */
+    double getEnergy() {
+        return this.kinetic + this.potential;
+    }
+
+    double getMomentumX() {
+        return this.momentumX;
+    }
+
+    double getMomentumY() {
+        return this.momentumY;
+    }
+
+    /**
+     * @return angular momentum about the origin
+     */
+    double getAngularMomentum() {
+        return this.angularMomentum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("energy %.6e (kinetic %.6e, potential %.6e), momentum (%.6e, %.6e), angular momentum %.6e",
+                this.getEnergy(), this.kinetic, this.potential, this.momentumX, this.momentumY, this.angularMomentum);
+    }
+}
@@ -0,0 +1,222 @@
+package somephysicsthing.solarsystem;
+
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sums the force from every body on every other one, exact but O(n^2).
+ *
+ * The sources are the bodies in the tree, the same ones the tree engines see, or when there's no tree the bodies
+ * inside the same region taken straight from the particles. When bodies are evaluated one after another in the
+ * sources' order at their own positions, a block of them is summed together a tile of sources at a time
+ * so each tile is only brought into cache once per block rather than once per body
+ */
+class DirectSum implements GravityEngine {
+    // bodies summed together
+    private static final int BLOCK = 64;
+    // sources per tile, small enough for a tile's positions and masses to stay in L1
+    private static final int TILE = 1024;
+
+    private final double g;
+
+    // the sources in tree order, or in index order when prepared without a tree
+    @Nonnull private double[] x = new double[0];
+    @Nonnull private double[] y = new double[0];
+    @Nonnull private double[] mass = new double[0];
+    private int sources;
+
+    // where each body is in the sources, -1 for bodies outside the tree
+    @Nonnull private int[] position = new int[0];
+
+    /**
+     * @param g the gravitational constant
+     */
+    DirectSum(double g) {
+        this.g = g;
+    }
+
+    @Override
+    public void prepare(@Nonnull FlatQuadtree tree, @Nonnegative int n, @Nonnull ForkJoinPool pool) {
+        var sources = tree.getCount(tree.root());
+
+        if (this.x.length < sources) {
+            this.x = new double[sources];
+            this.y = new double[sources];
+            this.mass = new double[sources];
+        }
+
+        if (this.position.length < n) {
+            this.position = new int[n];
+        }
+
+        Arrays.fill(this.position, 0, n, -1);
+
+        for (var k = 0; k < sources; k++) {
+            this.x[k] = tree.getBodyX(k);
+            this.y[k] = tree.getBodyY(k);
+            this.mass[k] = tree.getBodyMass(k);
+            this.position[tree.getBody(k)] = k;
+        }
+
+        this.sources = sources;
+    }
+
+    /**
+     * Get ready to evaluate forces without building a tree, bodies are summed in index order
+     * @param width width of the region the sources must be in, centred on the origin like the tree
+     * @param height height of the region the sources must be in
+     */
+    void prepare(@Nonnull Particles p, double width, double height) {
+        var n = p.size();
+
+        if (this.x.length < n) {
+            this.x = new double[n];
+            this.y = new double[n];
+            this.mass = new double[n];
+        }
+
+        if (this.position.length < n) {
+            this.position = new int[n];
+        }
+
+        var sources = 0;
+
+        for (var i = 0; i < n; i++) {
+            // the same bodies the tree would hold
+            if (Math.abs(p.x[i]) > width / 2 || Math.abs(p.y[i]) > height / 2) {
+                this.position[i] = -1;
+                continue;
+            }
+
+            this.x[sources] = p.x[i];
+            this.y[sources] = p.y[i];
+            this.mass[sources] = p.mass[i];
+            this.position[i] = sources++;
+        }
+
+        this.sources = sources;
+    }
+
+    @Nonnull
+    @Override
+    public ForceEvaluator newEvaluator(@Nonnull FlatQuadtree tree) {
+        return new Evaluator();
+    }
+
+    private class Evaluator extends ForceEvaluator {
+        @Nonnull private final BlockKernel kernel = BlockKernel.create();
+
+        // sums for the bodies at [blockFirst, blockFirst + blockCount) in the sources
+        @Nonnull private final double[] blockAx = new double[BLOCK];
+        @Nonnull private final double[] blockAy = new double[BLOCK];
+        @Nonnull private final double[] blockPotential = new double[BLOCK];
+        private int blockFirst = 0;
+        private int blockCount = 0;
+
+        // position of the last body evaluated at its own position
+        private int last = -2;
+
+        // the potential found by the last call to sum
+        private double sumPotential;
+
+        @Override
+        void accelerate(int self, double openX, double openY, double px, double py) {
+            var k = DirectSum.this.position[self];
+
+            if (k >= 0 && px == openX && py == openY) {
+                // only worth summing a block once bodies are coming in order
+                if ((k < this.blockFirst || k >= this.blockFirst + this.blockCount) && k == this.last + 1) {
+                    this.sumBlock(k);
+                }
+
+                this.last = k;
+
+                if (k >= this.blockFirst && k < this.blockFirst + this.blockCount) {
+                    var b = k - this.blockFirst;
+                    this.finish(this.blockAx[b], this.blockAy[b], this.blockPotential[b]);
+                    return;
+                }
+            }
+
+            this.sum(k, px, py, 0, DirectSum.this.sources);
+            this.finish(this.kernel.ax, this.kernel.ay, this.sumPotential);
+        }
+
+        /**
+         * Sum the forces on the block of sources starting at `first` a tile at a time
+         */
+        private void sumBlock(int first) {
+            var x = DirectSum.this.x;
+            var y = DirectSum.this.y;
+            var sources = DirectSum.this.sources;
+            var count = Math.min(BLOCK, sources - first);
+
+            Arrays.fill(this.blockAx, 0, count, 0.0);
+            Arrays.fill(this.blockAy, 0, count, 0.0);
+            Arrays.fill(this.blockPotential, 0, count, 0.0);
+
+            for (var from = 0; from < sources; from += TILE) {
+                var to = Math.min(from + TILE, sources);
+
+                for (var b = 0; b < count; b++) {
+                    this.sum(first + b, x[first + b], y[first + b], from, to);
+                    this.blockAx[b] += this.kernel.ax;
+                    this.blockAy[b] += this.kernel.ay;
+                    this.blockPotential[b] += this.sumPotential;
+                }
+            }
+
+            this.blockFirst = first;
+            this.blockCount = count;
+        }
+
+        /**
+         * Sum the sources [from, to) except `self` into the kernel, and their potential if it's wanted
+         * @param self position of the body in the sources, or -1
+         */
+        private void sum(int self, double px, double py, int from, int to) {
+            var x = DirectSum.this.x;
+            var y = DirectSum.this.y;
+            var m = DirectSum.this.mass;
+            var kernel = this.kernel;
+
+            if (self < from || self >= to) {
+                kernel.accelerate(px, py, x, y, m, from, to);
+
+                if (this.findPotential) {
+                    this.sumPotential = kernel.potential(px, py, x, y, m, from, to);
+                }
+                return;
+            }
+
+            kernel.accelerate(px, py, x, y, m, from, self);
+            var ax = kernel.ax;
+            var ay = kernel.ay;
+
+            kernel.accelerate(px, py, x, y, m, self + 1, to);
+            kernel.ax += ax;
+            kernel.ay += ay;
+
+            if (this.findPotential) {
+                this.sumPotential = kernel.potential(px, py, x, y, m, from, self)
+                        + kernel.potential(px, py, x, y, m, self + 1, to);
+            }
+        }
+
+        private void finish(double ax, double ay, double potential) {
+            // a body on top of another one
+            if (Double.isNaN(ax) || Double.isNaN(ay)) {
+                ax = 0;
+                ay = 0;
+            }
+
+            this.ax = DirectSum.this.g * ax;
+            this.ay = DirectSum.this.g * ay;
+            this.potential = DirectSum.this.g * potential;
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package somephysicsthing.solarsystem;
+
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The fast multipole method over the tree.
+ *
+ * The upward pass gives every node a multipole expansion of its bodies about its centre. The downward pass then
+ * gathers the far field of each node into a local expansion about its centre, from every node that is well separated
+ * from it, and hands it down to its children. After that a body only needs the local expansion of its leaf plus the
+ * bodies in the leaves around it, rather than a walk of the whole tree.
+ *
+ * The potential of this force law isn't harmonic so the expansions are plain Taylor series in x and y up to `order`,
+ * coefficient (a, b) being the one for x^a * y^b. The derivatives of the potential are found with a recurrence
+ * instead of spherical harmonics.
+ */
+class FastMultipole implements GravityEngine {
+    private static final double DEFAULT_THETA = 0.7;
+    private static final int PARALLEL_CUTOFF = 1 << 11;
+    private static final int[] NO_NODES = new int[0];
+
+    private final double g;
+    private final int order;
+    private final double theta;
+
+    // number of coefficients in an expansion, and the powers of x and y each one is for
+    private final int terms;
+    @Nonnull private final int[] powX, powY;
+    @Nonnull private final double[][] binomial;
+
+    // bodies outside the tree don't have a leaf, they walk the tree instead
+    @Nonnull private final BarnesHut fallback;
+
+    // expansions of node n are at [n * terms, (n + 1) * terms)
+    @Nonnull private double[] multipole = new double[0];
+    @Nonnull private double[] local = new double[0];
+
+    // leaves whose bodies are summed directly, for each leaf
+    @Nonnull private int[][] near = new int[0][];
+    @Nonnull private int[] nearCount = new int[0];
+
+    FastMultipole(double g, @Nonnegative int order) {
+        this(g, order, DEFAULT_THETA);
+    }
+
+    /**
+     * @param g the gravitational constant
+     * @param order the highest order of the expansions, at least 1
+     * @param theta two nodes are well separated when the sum of their radii is less than theta times their distance,
+     *              the expansions only converge below 1
+     */
+    FastMultipole(double g, @Nonnegative int order, double theta) {
+        if (order < 1)
+            throw new IllegalArgumentException("order must be at least 1");
+
+        this.g = g;
+        this.order = order;
+        this.theta = theta;
+        this.terms = (order + 1) * (order + 2) / 2;
+        this.powX = new int[this.terms];
+        this.powY = new int[this.terms];
+        this.fallback = new BarnesHut(theta, g);
+
+        for (var n = 0; n <= order; n++) {
+            for (var b = 0; b <= n; b++) {
+                this.powX[index(n - b, b)] = n - b;
+                this.powY[index(n - b, b)] = b;
+            }
+        }
+
+        this.binomial = new double[2 * order + 1][];
+        for (var n = 0; n < this.binomial.length; n++) {
+            this.binomial[n] = new double[n + 1];
+            this.binomial[n][0] = 1;
+            this.binomial[n][n] = 1;
+
+            for (var k = 1; k < n; k++) {
+                this.binomial[n][k] = this.binomial[n - 1][k - 1] + this.binomial[n - 1][k];
+            }
+        }
+    }
+
+    /**
+     * @return position of the coefficient for x^a * y^b, coefficients are ordered by total degree
+     */
+    private static int index(int a, int b) {
+        var n = a + b;
+        return n * (n + 1) / 2 + b;
+    }
+
+    @Override
+    public void prepare(@Nonnull FlatQuadtree tree, @Nonnegative int n, @Nonnull ForkJoinPool pool) {
+        var nodes = tree.getNodeCount();
+
+        if (this.multipole.length < nodes * this.terms) {
+            this.multipole = new double[nodes * this.terms];
+            this.local = new double[nodes * this.terms];
+        }
+
+        if (this.near.length < nodes) {
+            this.near = Arrays.copyOf(this.near, nodes);
+            this.nearCount = new int[nodes];
+        }
+
+        var root = tree.root();
+        var parallel = tree.getCount(root) >= PARALLEL_CUTOFF && pool.getParallelism() > 1;
+
+        var upward = new UpwardTask(tree, root);
+        if (parallel) {
+            pool.invoke(upward);
+        } else {
+            upward.computeSubtree(root);
+        }
+
+        Arrays.fill(this.local, root * this.terms, (root + 1) * this.terms, 0.0);
+
+        var downward = new DownwardTask(tree, root, new int[]{root}, 1);
+        if (parallel) {
+            pool.invoke(downward);
+        } else {
+            downward.computeSubtree();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ForceEvaluator newEvaluator(@Nonnull FlatQuadtree tree) {
+        return new Evaluator(tree);
+    }
+
+    /**
+     * Scratch space for building expansions, one per thread
+     */
+    private class Workspace {
+        @Nonnull final double[] powersX = new double[FastMultipole.this.order + 1];
+        @Nonnull final double[] powersY = new double[FastMultipole.this.order + 1];
+
+        // taylor coefficients of the potential
+        @Nonnull final double[] taylor = new double[FastMultipole.this.terms];
+
+        /**
+         * fill in the powers of (x, y) up to the order of the expansions
+         */
+        void powers(double x, double y) {
+            this.powersX[0] = 1;
+            this.powersY[0] = 1;
+
+            for (var k = 1; k <= FastMultipole.this.order; k++) {
+                this.powersX[k] = this.powersX[k - 1] * x;
+                this.powersY[k] = this.powersY[k - 1] * y;
+            }
+        }
+
+        /**
+         * Find the taylor coefficients of the potential of a unit mass about (x, y), that is the coefficients of
+         * h(|(x, y) + u|^2) as a series in u, with h(s) = 2 * g * s^(1/4).
+         *
+         * With v = |(x, y) + u|^2 and w = v^(1/4), w is found from v * dw = 1/4 * w * dv
+         * taken along x, or along y for the coefficients with no power of x.
+         *
+         * NOTE: Only valid for x^2 + y^2 >= 1, closer than that the force law is different
+         */
+        void taylor(double x, double y) {
+            var fmm = FastMultipole.this;
+            var order = fmm.order;
+            var w = this.taylor;
+            var s = x * x + y * y;
+            var a = 0.25;
+
+            w[0] = Math.sqrt(Math.sqrt(s));
+
+            for (var j = 0; j < order; j++) {
+                var wj = w[index(0, j)];
+                var wjm1 = j >= 1 ? w[index(0, j - 1)] : 0.0;
+
+                w[index(0, j + 1)] = (a * (2 * y * wj + 2 * wjm1) - 2 * y * j * wj - (j - 1) * wjm1) / (s * (j + 1));
+            }
+
+            for (var i = 0; i < order; i++) {
+                for (var j = 0; i + 1 + j <= order; j++) {
+                    var wij = w[index(i, j)];
+                    var wim1 = i >= 1 ? w[index(i - 1, j)] : 0.0;
+                    var wjm1 = j >= 1 ? w[index(i + 1, j - 1)] : 0.0;
+                    var wjm2 = j >= 2 ? w[index(i + 1, j - 2)] : 0.0;
+
+                    w[index(i + 1, j)] = (a * (2 * x * wij + 2 * wim1)
+                            - 2 * x * i * wij
+                            - 2 * y * (i + 1) * wjm1
+                            - (i - 1) * wim1
+                            - (i + 1) * wjm2) / (s * (i + 1));
+                }
+            }
+
+            for (var k = 0; k < fmm.terms; k++) {
+                w[k] *= 2 * fmm.g;
+            }
+        }
+    }
+
+    /**
+     * Build the multipole expansion of a leaf from its bodies, about its centre
+     */
+    private void leafToMultipole(@Nonnull FlatQuadtree tree, int node, @Nonnull Workspace ws) {
+        var m = this.multipole;
+        var base = node * this.terms;
+        Arrays.fill(m, base, base + this.terms, 0.0);
+
+        for (var k = tree.getFirst(node); k < tree.getFirst(node) + tree.getCount(node); k++) {
+            ws.powers(tree.getBodyX(k) - tree.getCentreX(node), tree.getBodyY(k) - tree.getCentreY(node));
+
+            for (var t = 0; t < this.terms; t++) {
+                m[base + t] += tree.getBodyMass(k) * ws.powersX[this.powX[t]] * ws.powersY[this.powY[t]];
+            }
+        }
+    }
+
+    /**
+     * Build the multipole expansion of a node by moving its children's expansions onto its centre
+     */
+    private void childrenToMultipole(@Nonnull FlatQuadtree tree, int node, @Nonnull Workspace ws) {
+        var m = this.multipole;
+        var base = node * this.terms;
+        Arrays.fill(m, base, base + this.terms, 0.0);
+
+        for (var c = tree.getChild(node); c < tree.getChild(node) + 4; c++) {
+            if (tree.getCount(c) == 0)
+                continue;
+
+            ws.powers(tree.getCentreX(c) - tree.getCentreX(node), tree.getCentreY(c) - tree.getCentreY(node));
+            var childBase = c * this.terms;
+
+            for (var t = 0; t < this.terms; t++) {
+                var ax = this.powX[t];
+                var ay = this.powY[t];
+                var sum = 0.0;
+
+                for (var bx = 0; bx <= ax; bx++) {
+                    for (var by = 0; by <= ay; by++) {
+                        sum += this.binomial[ax][bx] * this.binomial[ay][by]
+                                * m[childBase + index(bx, by)]
+                                * ws.powersX[ax - bx] * ws.powersY[ay - by];
+                    }
+                }
+
+                m[base + t] += sum;
+            }
+        }
+    }
+
+    /**
+     * Add the far field of `source` to the local expansion of `target`
+     */
+    private void multipoleToLocal(@Nonnull FlatQuadtree tree, int source, int target, @Nonnull Workspace ws) {
+        var m = this.multipole;
+        var l = this.local;
+        var sourceBase = source * this.terms;
+        var targetBase = target * this.terms;
+        var taylor = ws.taylor;
+
+        ws.taylor(tree.getCentreX(target) - tree.getCentreX(source), tree.getCentreY(target) - tree.getCentreY(source));
+
+        for (var t = 0; t < this.terms; t++) {
+            var gx = this.powX[t];
+            var gy = this.powY[t];
+            var sum = 0.0;
+
+            for (var s = 0; s < this.terms; s++) {
+                var bx = this.powX[s];
+                var by = this.powY[s];
+
+                if (bx + by + gx + gy > this.order)
+                    break;
+
+                var term = m[sourceBase + s] * taylor[index(bx + gx, by + gy)]
+                        * this.binomial[bx + gx][bx] * this.binomial[by + gy][by];
+                sum += (bx + by) % 2 == 0 ? term : -term;
+            }
+
+            l[targetBase + t] += sum;
+        }
+    }
+
+    /**
+     * Set the local expansion of `child` to the local expansion of its parent moved onto the child's centre
+     */
+    private void localToChild(@Nonnull FlatQuadtree tree, int parent, int child, @Nonnull Workspace ws) {
+        var l = this.local;
+        var parentBase = parent * this.terms;
+        var childBase = child * this.terms;
+
+        ws.powers(tree.getCentreX(child) - tree.getCentreX(parent), tree.getCentreY(child) - tree.getCentreY(parent));
+
+        for (var t = 0; t < this.terms; t++) {
+            var gx = this.powX[t];
+            var gy = this.powY[t];
+            var sum = 0.0;
+
+            for (var ax = gx; ax <= this.order; ax++) {
+                for (var ay = gy; ax + ay <= this.order; ay++) {
+                    sum += this.binomial[ax][gx] * this.binomial[ay][gy]
+                            * l[parentBase + index(ax, ay)]
+                            * ws.powersX[ax - gx] * ws.powersY[ay - gy];
+                }
+            }
+
+            l[childBase + t] = sum;
+        }
+    }
+
+    private static double radius(@Nonnull FlatQuadtree tree, int node) {
+        return Math.hypot(tree.getHalfWidth(node), tree.getHalfHeight(node));
+    }
+
+    /**
+     * Nodes are well separated when they're far enough apart for the expansions to converge,
+     * and every pair of points in them is at least 1 apart so the force law is the same throughout
+     */
+    private boolean wellSeparated(@Nonnull FlatQuadtree tree, int a, int b) {
+        var dx = tree.getCentreX(a) - tree.getCentreX(b);
+        var dy = tree.getCentreY(a) - tree.getCentreY(b);
+        var dist = Math.sqrt(dx * dx + dy * dy);
+        var radii = radius(tree, a) + radius(tree, b);
+
+        return radii < this.theta * dist && dist - radii >= 1.0;
+    }
+
+    /**
+     * The upward pass, forking a task per quadrant while there are enough bodies
+     */
+    private class UpwardTask extends RecursiveAction {
+        @Nonnull private final FlatQuadtree tree;
+        private final int node;
+        @Nonnull private final Workspace ws = new Workspace();
+
+        UpwardTask(@Nonnull FlatQuadtree tree, int node) {
+            this.tree = tree;
+            this.node = node;
+        }
+
+        void computeSubtree(int node) {
+            if (this.tree.isLeaf(node)) {
+                FastMultipole.this.leafToMultipole(this.tree, node, this.ws);
+                return;
+            }
+
+            for (var c = this.tree.getChild(node); c < this.tree.getChild(node) + 4; c++) {
+                this.computeSubtree(c);
+            }
+
+            FastMultipole.this.childrenToMultipole(this.tree, node, this.ws);
+        }
+
+        @Override
+        protected void compute() {
+            var tree = this.tree;
+
+            if (tree.getCount(this.node) < PARALLEL_CUTOFF || tree.isLeaf(this.node)) {
+                this.computeSubtree(this.node);
+                return;
+            }
+
+            var c = tree.getChild(this.node);
+            invokeAll(
+                    new UpwardTask(tree, c),
+                    new UpwardTask(tree, c + 1),
+                    new UpwardTask(tree, c + 2),
+                    new UpwardTask(tree, c + 3)
+            );
+
+            FastMultipole.this.childrenToMultipole(tree, this.node, this.ws);
+        }
+    }
+
+    /**
+     * The downward pass for a node. Each source that isn't well separated from the node is either opened,
+     * or passed down to the node's children if the node is the bigger of the two.
+     *
+     * NOTE: The node's local expansion must already hold what was passed down from its parent
+     */
+    private class DownwardTask extends RecursiveAction {
+        @Nonnull private final FlatQuadtree tree;
+        private final int node;
+        @Nonnull private final int[] sources;
+        private final int sourceCount;
+        @Nonnull private final Workspace ws;
+
+        DownwardTask(@Nonnull FlatQuadtree tree, int node, @Nonnull int[] sources, int sourceCount) {
+            this(tree, node, sources, sourceCount, FastMultipole.this.new Workspace());
+        }
+
+        private DownwardTask(@Nonnull FlatQuadtree tree, int node, @Nonnull int[] sources, int sourceCount,
+                             @Nonnull Workspace ws) {
+            this.tree = tree;
+            this.node = node;
+            this.sources = sources;
+            this.sourceCount = sourceCount;
+            this.ws = ws;
+        }
+
+        @Override
+        protected void compute() {
+            this.computeSubtree();
+        }
+
+        void computeSubtree() {
+            var fmm = FastMultipole.this;
+            var tree = this.tree;
+            var node = this.node;
+            var leaf = tree.isLeaf(node);
+
+            var pending = Arrays.copyOf(this.sources, Math.max(16, this.sourceCount));
+            var top = this.sourceCount;
+            var deferred = new int[16];
+            var deferredCount = 0;
+            var near = !leaf ? NO_NODES : fmm.near[node] != null ? fmm.near[node] : new int[16];
+            var nearCount = 0;
+
+            while (top > 0) {
+                var source = pending[--top];
+
+                if (tree.getCount(source) == 0)
+                    continue;
+
+                if (fmm.wellSeparated(tree, node, source)) {
+                    fmm.multipoleToLocal(tree, source, node, this.ws);
+                } else if (leaf && tree.isLeaf(source)) {
+                    if (nearCount == near.length) {
+                        near = Arrays.copyOf(near, near.length * 2);
+                    }
+                    near[nearCount++] = source;
+                } else if (!leaf && (tree.isLeaf(source) || radius(tree, node) >= radius(tree, source))) {
+                    if (deferredCount == deferred.length) {
+                        deferred = Arrays.copyOf(deferred, deferred.length * 2);
+                    }
+                    deferred[deferredCount++] = source;
+                } else {
+                    if (top + 4 > pending.length) {
+                        pending = Arrays.copyOf(pending, pending.length * 2);
+                    }
+                    for (var c = tree.getChild(source); c < tree.getChild(source) + 4; c++) {
+                        pending[top++] = c;
+                    }
+                }
+            }
+
+            if (leaf) {
+                fmm.near[node] = near;
+                fmm.nearCount[node] = nearCount;
+                return;
+            }
+
+            var forkChildren = tree.getCount(node) >= PARALLEL_CUTOFF && inForkJoinPool();
+            var tasks = new DownwardTask[4];
+            var taskCount = 0;
+
+            for (var c = tree.getChild(node); c < tree.getChild(node) + 4; c++) {
+                if (tree.getCount(c) == 0)
+                    continue;
+
+                fmm.localToChild(tree, node, c, this.ws);
+
+                if (forkChildren) {
+                    tasks[taskCount++] = new DownwardTask(tree, c, deferred, deferredCount);
+                } else {
+                    new DownwardTask(tree, c, deferred, deferredCount, this.ws).computeSubtree();
+                }
+            }
+
+            if (taskCount > 0) {
+                invokeAll(Arrays.copyOf(tasks, taskCount));
+            }
+        }
+    }
+
+    /**
+     * Evaluates the local expansion of a body's leaf and adds the bodies of the leaves near it directly
+     */
+    private class Evaluator extends ForceEvaluator {
+        @Nonnull private final FlatQuadtree tree;
+        @Nonnull private final ForceEvaluator fallback;
+        @Nonnull private final double[] powersX = new double[FastMultipole.this.order + 1];
+        @Nonnull private final double[] powersY = new double[FastMultipole.this.order + 1];
+        @Nonnull private final BlockKernel kernel = BlockKernel.create();
+
+        // the bodies of the near leaves of the last leaf evaluated, packed together
+        private int packedLeaf = FlatQuadtree.NO_CHILD;
+        @Nonnull private int[] nearBody = new int[64];
+        @Nonnull private double[] nearX = new double[64];
+        @Nonnull private double[] nearY = new double[64];
+        @Nonnull private double[] nearMass = new double[64];
+        private int nearCount;
+        private int ownFirst;
+
+        Evaluator(@Nonnull FlatQuadtree tree) {
+            this.tree = tree;
+            this.fallback = FastMultipole.this.fallback.newEvaluator(tree);
+        }
+
+        @Override
+        void accelerate(int self, double openX, double openY, double px, double py) {
+            var fmm = FastMultipole.this;
+            var tree = this.tree;
+            var leaf = tree.getLeaf(self);
+
+            if (leaf == FlatQuadtree.NO_CHILD) {
+                this.fallback.findPotential = this.findPotential;
+                this.fallback.accelerate(self, openX, openY, px, py);
+                this.ax = this.fallback.ax;
+                this.ay = this.fallback.ay;
+                this.potential = this.fallback.potential;
+                return;
+            }
+
+            // the far field, the gradient of the local expansion
+            var ux = px - tree.getCentreX(leaf);
+            var uy = py - tree.getCentreY(leaf);
+            var powersX = this.powersX;
+            var powersY = this.powersY;
+            powersX[0] = 1;
+            powersY[0] = 1;
+            for (var k = 1; k <= fmm.order; k++) {
+                powersX[k] = powersX[k - 1] * ux;
+                powersY[k] = powersY[k - 1] * uy;
+            }
+
+            var l = fmm.local;
+            var base = leaf * fmm.terms;
+            var ax = 0.0;
+            var ay = 0.0;
+
+            for (var t = 1; t < fmm.terms; t++) {
+                var a = fmm.powX[t];
+                var b = fmm.powY[t];
+
+                if (a > 0)
+                    ax -= a * l[base + t] * powersX[a - 1] * powersY[b];
+                if (b > 0)
+                    ay -= b * l[base + t] * powersX[a] * powersY[b - 1];
+            }
+
+            // the near field, summed directly either side of the body itself
+            if (leaf != this.packedLeaf) {
+                this.pack(leaf);
+            }
+
+            var own = this.ownFirst;
+            while (this.nearBody[own] != self) {
+                own++;
+            }
+
+            var kernel = this.kernel;
+            kernel.accelerate(px, py, this.nearX, this.nearY, this.nearMass, 0, own);
+            ax += fmm.g * kernel.ax;
+            ay += fmm.g * kernel.ay;
+
+            kernel.accelerate(px, py, this.nearX, this.nearY, this.nearMass, own + 1, this.nearCount);
+            ax += fmm.g * kernel.ax;
+            ay += fmm.g * kernel.ay;
+
+            if (Double.isNaN(ax) || Double.isNaN(ay)) {
+                ax = 0;
+                ay = 0;
+            }
+
+            this.ax = ax;
+            this.ay = ay;
+
+            if (this.findPotential) {
+                // the far field is the local expansion itself
+                var potential = 0.0;
+                for (var t = 0; t < fmm.terms; t++) {
+                    potential += l[base + t] * powersX[fmm.powX[t]] * powersY[fmm.powY[t]];
+                }
+
+                var near = kernel.potential(px, py, this.nearX, this.nearY, this.nearMass, 0, own)
+                        + kernel.potential(px, py, this.nearX, this.nearY, this.nearMass, own + 1, this.nearCount);
+                this.potential = potential + fmm.g * near;
+            }
+        }
+
+        /**
+         * Copy the bodies of the leaves near `leaf` next to each other
+         */
+        private void pack(int leaf) {
+            var tree = this.tree;
+            var near = FastMultipole.this.near[leaf];
+            var count = 0;
+
+            for (var j = 0; j < FastMultipole.this.nearCount[leaf]; j++) {
+                count += tree.getCount(near[j]);
+            }
+
+            if (this.nearBody.length < count) {
+                this.nearBody = new int[count];
+                this.nearX = new double[count];
+                this.nearY = new double[count];
+                this.nearMass = new double[count];
+            }
+
+            this.packedLeaf = leaf;
+            this.nearCount = 0;
+
+            for (var j = 0; j < FastMultipole.this.nearCount[leaf]; j++) {
+                var source = near[j];
+
+                if (source == leaf) {
+                    this.ownFirst = this.nearCount;
+                }
+
+                for (var k = tree.getFirst(source); k < tree.getFirst(source) + tree.getCount(source); k++) {
+                    var b = this.nearCount++;
+                    this.nearBody[b] = tree.getBody(k);
+                    this.nearX[b] = tree.getBodyX(k);
+                    this.nearY[b] = tree.getBodyY(k);
+                    this.nearMass[b] = tree.getBodyMass(k);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package somephysicsthing.solarsystem;
+
+/**
+ * Finds the acceleration on a body, one of these is made per chunk of bodies so the force
+ * evaluation can keep scratch space without allocating or sharing it between threads
+ */
+abstract class ForceEvaluator {
+    // the acceleration found by the last call to accelerate
+    double ax, ay;
+
+    // if accelerate should also find the potential, and the potential it found
+    boolean findPotential = false;
+    double potential;
+
+    /**
+     * Find the acceleration on a body, the sources are always the bodies at the start of the step
+     * @param self index of the body being accelerated, it doesn't attract itself
+     * @param openX x coordinate of the body at the start of the step
+     * @param openY y coordinate of the body at the start of the step
+     * @param px x coordinate to calculate the acceleration at
+     * @param py y coordinate to calculate the acceleration at
+     */
+    abstract void accelerate(int self, double openX, double openY, double px, double py);
+
+    /**
+     * The force law, the acceleration towards a unit mass at (dx, dy) is g * (dx, dy) * kernel(dx, dy).
+     *
+     * The magnitude falls off with the square root of the distance, and stops growing once closer than 1,
+     * this only needs the one inverse distance and its square root
+     */
+    static double kernel(double dx, double dy) {
+        var invDist = 1.0 / Math.sqrt(dx * dx + dy * dy);
+        return invDist * Math.min(Math.sqrt(invDist), 1.0);
+    }
+
+    /**
+     * The potential of the force law, the potential energy of a unit mass at (dx, dy) from another one is
+     * g * potentialKernel(dx, dy)
+     */
+    static double potentialKernel(double dx, double dy) {
+        var dist = Math.sqrt(dx * dx + dy * dy);
+        return dist >= 1.0 ? 2 * Math.sqrt(dist) : dist + 1;
+    }
+}
@@ -0,0 +1,169 @@
+package somephysicsthing.solarsystem;
+
+import somephysicsthing.solarsystem.bounded.Bounded;
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything the screen needs from one step of the simulation, copied out so it can be drawn while the next steps run.
+ *
+ * Frames are handed over through a {@link TripleBuffer}, a frame is only written before it's published and only
+ * read after, and the arrays are kept from one use to the next so making a frame doesn't allocate
+ */
+class Frame {
+    // the step this is the result of, 0 for a frame that hasn't been made yet
+    long step = 0;
+
+    // the bodies, in world coordinates
+    int count = 0;
+    @Nonnull double[] x = new double[0];
+    @Nonnull double[] y = new double[0];
+    @Nonnull double[] diameter = new double[0];
+    @Nonnull int[] rgb = new int[0];
+
+    // the regions of the tree, centre, width and height in world coordinates
+    int regionCount = 0;
+    @Nonnull double[] regionX = new double[0];
+    @Nonnull double[] regionY = new double[0];
+    @Nonnull double[] regionW = new double[0];
+    @Nonnull double[] regionH = new double[0];
+
+    // nodes still to visit when capturing from a tree, kept for the next capture
+    @Nonnull private int[] stack = new int[0];
+
+    /**
+     * Copy the bodies and regions into the frame
+     */
+    void capture(long step, @Nonnull List<Planet> planets, @Nonnull List<Bounded> regions) {
+        this.count = 0;
+        this.reserve(planets.size());
+
+        for (var planet : planets) {
+            this.add(planet);
+        }
+
+        this.captureRegions(step, regions);
+    }
+
+    /**
+     * Copy the bodies into the frame as they'd be seen from far enough away that a node of the tree smaller than
+     * `minSize` is a pixel or so across. Those nodes, leaves included, are copied as one body at their centre of
+     * mass in the colour of their heaviest body instead of as each of their bodies, so how big the frame is
+     * depends on how many pixels the bodies cover rather than how many bodies there are.
+     *
+     * NOTE: The tree must be the one the last step built over the planets, nodes are where their bodies were
+     * when it was built while bodies on their own are where they are now
+     * @param minSize width in world coordinates below which a node is copied as one body
+     */
+    void captureLevelOfDetail(long step, @Nonnull FlatQuadtree tree, @Nonnull List<Planet> planets,
+                              @Nonnull List<Bounded> regions, double minSize) {
+        this.count = 0;
+
+        if (this.stack.length < 3 * tree.getMaxDepth() + 5) {
+            this.stack = new int[3 * tree.getMaxDepth() + 5];
+        }
+
+        var stack = this.stack;
+        var top = 0;
+        stack[top++] = tree.root();
+
+        while (top > 0) {
+            var node = stack[--top];
+            var count = tree.getCount(node);
+
+            if (count == 0)
+                continue;
+
+            if (count == 1) {
+                this.reserve(this.count + 1);
+                this.add(planets.get(tree.getBody(tree.getFirst(node))));
+                continue;
+            }
+
+            // leaves too, at the maximum depth a leaf can hold any number of bodies
+            if (2 * Math.max(tree.getHalfWidth(node), tree.getHalfHeight(node)) < minSize) {
+                this.reserve(this.count + 1);
+                this.x[this.count] = tree.getCentreOfMassX(node);
+                this.y[this.count] = tree.getCentreOfMassY(node);
+                this.diameter[this.count] = Planet.diameterOf(tree.getMass(node));
+                // drawn as its heaviest body, so the sun stays the sun's colour
+                this.rgb[this.count] = planets.get(tree.getHeaviest(node)).rgb;
+                this.count++;
+                continue;
+            }
+
+            if (tree.isLeaf(node)) {
+                this.reserve(this.count + count);
+
+                var first = tree.getFirst(node);
+                for (var k = first; k < first + count; k++) {
+                    this.add(planets.get(tree.getBody(k)));
+                }
+                continue;
+            }
+
+            var c = tree.getChild(node);
+            for (var j = 0; j < 4; j++) {
+                stack[top++] = c + j;
+            }
+        }
+
+        // bodies outside the tree are kept after the root's run
+        var n = planets.size();
+        this.reserve(this.count + n - tree.getCount(tree.root()));
+
+        for (var k = tree.getCount(tree.root()); k < n; k++) {
+            this.add(planets.get(tree.getBody(k)));
+        }
+
+        this.captureRegions(step, regions);
+    }
+
+    /**
+     * Make room for at least `n` bodies, keeping the ones already copied
+     */
+    private void reserve(int n) {
+        if (this.x.length >= n)
+            return;
+
+        var capacity = Math.max(n, this.x.length * 2);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.diameter = Arrays.copyOf(this.diameter, capacity);
+        this.rgb = Arrays.copyOf(this.rgb, capacity);
+    }
+
+    private void add(@Nonnull Planet planet) {
+        this.x[this.count] = planet.getX();
+        this.y[this.count] = planet.getY();
+        this.diameter[this.count] = planet.getDiameter();
+        this.rgb[this.count] = planet.rgb;
+        this.count++;
+    }
+
+    private void captureRegions(long step, @Nonnull List<Bounded> regions) {
+        var r = regions.size();
+
+        if (this.regionX.length < r) {
+            var capacity = Math.max(r, this.regionX.length * 2);
+            this.regionX = new double[capacity];
+            this.regionY = new double[capacity];
+            this.regionW = new double[capacity];
+            this.regionH = new double[capacity];
+        }
+
+        for (var i = 0; i < r; i++) {
+            var rect = regions.get(i).getRect();
+            this.regionX[i] = rect.getX();
+            this.regionY[i] = rect.getY();
+            this.regionW[i] = rect.getW();
+            this.regionH[i] = rect.getH();
+        }
+
+        this.step = step;
+        this.regionCount = r;
+    }
+}
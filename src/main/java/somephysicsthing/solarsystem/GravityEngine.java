@@ -0,0 +1,25 @@
+package somephysicsthing.solarsystem;
+
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A way of finding the gravity on every body from the tree, {@link MassSimulation} can be switched between these
+ */
+interface GravityEngine {
+    /**
+     * Get ready to evaluate forces for a step, this is called once the tree is built and its monopoles computed
+     * @param tree the tree over the bodies at the start of the step
+     * @param n number of bodies
+     * @param pool the pool to do any parallel work on
+     */
+    void prepare(@Nonnull FlatQuadtree tree, @Nonnegative int n, @Nonnull ForkJoinPool pool);
+
+    /**
+     * @return scratch space for evaluating forces on one thread, only valid until the next call to prepare
+     */
+    @Nonnull ForceEvaluator newEvaluator(@Nonnull FlatQuadtree tree);
+}
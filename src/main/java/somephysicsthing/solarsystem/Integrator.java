@@ -0,0 +1,23 @@
+package somephysicsthing.solarsystem;
+
+/**
+ * How {@link MassSimulation} moves bodies forward each step
+ */
+enum Integrator {
+    /**
+     * fourth order runge kutta, four force evaluations per body per step
+     */
+    RUNGE_KUTTA,
+
+    /**
+     * kick-drift-kick leapfrog, one force evaluation per body per step and symplectic,
+     * so energy stays bounded over long runs instead of drifting
+     */
+    LEAPFROG,
+
+    /**
+     * leapfrog where each body has its own timestep, the step passed to the simulation divided by a power of two,
+     * and only bodies at the end of their step have their forces evaluated
+     */
+    BLOCK_TIMESTEPS
+}
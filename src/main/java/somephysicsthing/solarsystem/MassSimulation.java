@@ -1,224 +1,692 @@
 package somephysicsthing.solarsystem;
 
 import somephysicsthing.solarsystem.bounded.Bounded;
-import somephysicsthing.solarsystem.propertytraits.*;
-import somephysicsthing.solarsystem.quadtree.*;
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-public class MassSimulation<T extends MutPosition & MutVelocity & HasMass> {
-    @Nonnull private final List<T> elems;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+public class MassSimulation {
+    // small leaves are cheaper to sum directly than to keep splitting
+    private static final int DEFAULT_LEAF_CAPACITY = 8;
+    private static final int DEFAULT_MAX_DEPTH = 24;
+    private static final int DEFAULT_MAX_TIME_BIN = 6;
+    private static final double DEFAULT_TIMESTEP_ACCURACY = 0.02;
+    // about where summing directly without a tree stops being as cheap as building and walking one at the
+    // default theta, measured with leapfrog steps on one core. With more cores it's higher if anything, the
+    // direct sum splits into a chunk per 64 bodies while small trees are built on one thread
+    private static final int DEFAULT_DIRECT_THRESHOLD = 128;
+
+    // the distance inside which the force law stops growing
+    private static final double CORE_RADIUS = 1.0;
+
+    /**
+     * The parts of a step that are timed
+     */
+    enum Phase {
+        /**
+         * building the tree and its monopoles
+         */
+        TREE,
+
+        /**
+         * the engine getting ready to evaluate forces from the tree
+         */
+        ENGINE,
+
+        /**
+         * evaluating forces, including the runge kutta integration that happens alongside
+         */
+        FORCES,
+
+        /**
+         * kicking and drifting bodies with accelerations they already have
+         */
+        DRIFT
+    }
+
+    @Nonnull private final Particles particles;
+    @Nonnull private final FlatQuadtree tree;
     private final double width, height;
     private final double theta;
     private final double g;
+    private boolean incrementalTree = false;
+    @Nonnull private GravityEngine engine;
+    @Nonnull private final DirectSum directSum;
+    private int directThreshold = DEFAULT_DIRECT_THRESHOLD;
+    // the engine evaluating forces this step
+    @Nonnull private GravityEngine stepEngine;
+    // false when the last step summed directly without building the tree, the tree is from before then
+    private boolean treeBuilt = false;
+    @Nonnull private Integrator integrator = Integrator.RUNGE_KUTTA;
+
+    // if the accelerations stored on the particles are from the end of the last leapfrog step
+    private boolean accelerationsCurrent = false;
+
+    private int maxTimeBin = DEFAULT_MAX_TIME_BIN;
+    private double timestepAccuracy = DEFAULT_TIMESTEP_ACCURACY;
+    @Nonnull private int[] active = new int[0];
+
+    // the shortest step any body wanted at the last force evaluation
+    private double suggestedTimestep = Double.NaN;
+
+    private long forceEvaluations = 0;
+    @Nonnull private final long[] phaseNanos = new long[Phase.values().length];
+
+    // if energy and momentum are summed during the force evaluation, and what they were at the last one
+    private boolean diagnose = false;
+    @Nullable private Diagnostics diagnostics = null;
+    @Nonnull private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    MassSimulation(@Nonnull Particles particles, double width, double height) {
+        // this(particles, width, height, 1.2, 6.67e-11);
+        this(particles, width, height, 1.2, 1e-6f);
+    }
 
-    MassSimulation(@Nonnull List<T> elems, double width, double height) {
-        this.elems = elems;
-        this.width = width;
-        this.height = height;
-        this.theta = 1.2;
-        // this.g = 6.67e-11;
-        this.g = 1e-6f;
+    MassSimulation(@Nonnull Particles particles, double width, double height, double theta, double g) {
+        this(particles, width, height, theta, g, DEFAULT_LEAF_CAPACITY, DEFAULT_MAX_DEPTH);
     }
 
-    MassSimulation(@Nonnull List<T> elems, double width, double height, double theta, double g) {
-        this.elems = elems;
+    /**
+     * @param leafCapacity how many bodies a leaf of the tree may hold before it is split
+     * @param maxDepth depth after which leaves of the tree are never split
+     */
+    MassSimulation(@Nonnull Particles particles, double width, double height, double theta, double g,
+                   int leafCapacity, int maxDepth) {
+        this.particles = particles;
+        this.tree = new FlatQuadtree(width, height, leafCapacity, maxDepth);
         this.width = width;
         this.height = height;
         this.theta = theta;
         this.g = g;
+        this.engine = new BarnesHut(theta, g);
+        this.directSum = new DirectSum(g);
+        this.stepEngine = this.engine;
     }
 
-    HashMap<List<Direction>, Bounded> runSimulation(double ts) {
-        var tree = new Quadtree<T>(this.width, this.height);
-
-        for (var elem : this.elems) {
-            tree.insert(elem);
+    ArrayList<Bounded> runSimulation(double ts) {
+        switch (this.integrator) {
+            case LEAPFROG:
+                this.leapfrog(ts);
+                break;
+            case RUNGE_KUTTA:
+                this.rungeKutta(ts);
+                break;
+            case BLOCK_TIMESTEPS:
+                this.blockTimesteps(ts);
+                break;
         }
 
-        HashMap<List<Direction>, MassyPoint> weights = (new CalculateWeights()).calculate(tree);
+        return this.treeBuilt ? this.tree.getRegions() : new ArrayList<>();
+    }
 
-        this.elems.parallelStream()
-                .forEach(elem -> {
-                    var massesToUse = tree.getPathsFitting((Bounded region) -> {
-                        var avgWidth = (region.getH() + region.getW()) / 2.0f;
-                        var dist = region.getPos().sub(elem.getPos()).abs();
+    /**
+     * Run a step as long as the controller allows given the bodies' last accelerations
+     */
+    ArrayList<Bounded> runSimulation(@Nonnull TimestepController controller) {
+        return this.runSimulation(controller.next(this.suggestedTimestep));
+    }
 
-                        return (avgWidth / dist) < this.theta;
-                    });
+    /**
+     * Build the tree over where the bodies are now and get the engine ready to evaluate forces from it,
+     * or if forces are being summed directly just get the direct sum ready without building a tree
+     */
+    private void buildTree() {
+        var p = this.particles;
+        var tree = this.tree;
+        var started = System.nanoTime();
+
+        // with few enough bodies summing every pair is cheaper than even building the tree
+        if (p.size() <= this.directThreshold || this.engine == this.directSum) {
+            this.stepEngine = this.directSum;
+            this.treeBuilt = false;
+            this.directSum.prepare(p, this.width, this.height);
+            this.time(Phase.ENGINE, started);
+            return;
+        }
 
-                    var massesStream = massesToUse
-                            .parallelStream()
-                            .map(weights::get)
-                            .filter(Objects::nonNull);
+        // the tree can only be updated if it was kept up to date through the last step
+        if (this.incrementalTree && this.treeBuilt) {
+            tree.update(p.x, p.y, p.size());
+        } else {
+            tree.buildMorton(p.x, p.y, p.size());
+        }
+        tree.computeMonopoles(p.x, p.y, p.mass);
+        this.treeBuilt = true;
+        started = this.time(Phase.TREE, started);
 
-                    var newValues = this.calcValuesFromGravity(elem, massesStream, ts);
+        this.stepEngine = this.engine;
+        this.stepEngine.prepare(tree, p.size(), this.pool);
+        this.time(Phase.ENGINE, started);
+    }
 
-                    elem.setPosition(newValues.left);
-                    elem.setVelocity(newValues.right);
-                });
+    private void rungeKutta(double ts) {
+        this.buildTree();
+        this.accelerationsCurrent = false;
+        this.forceEvaluations += 4L * this.particles.size();
+        var suggestion = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        var diagnostics = this.diagnose ? new Diagnostics() : null;
+
+        var started = System.nanoTime();
+
+        // bodies are visited in tree order so that neighbours are evaluated one after another
+        ParallelRange.forEach(this.pool, this.particles.size(), (int from, int to) -> {
+            var forces = this.newEvaluator();
+            var chunk = diagnostics != null ? new Diagnostics() : null;
+            var shortest = Double.POSITIVE_INFINITY;
+
+            for (var k = from; k < to; k++) {
+                var i = this.bodyAt(k);
+                this.integrate(forces, i, ts, chunk);
+                shortest = Math.min(shortest, this.bodyTimestep(i));
+            }
 
-        return tree.getRegions();
+            suggestion.accumulate(shortest);
+            this.addDiagnostics(diagnostics, chunk);
+        });
+
+        this.time(Phase.FORCES, started);
+        this.suggestedTimestep = suggestion.get();
+        this.diagnostics = diagnostics;
     }
 
-    @Nonnull
-    private Vec2 calcAccelForPoint(@Nonnull Vec2 pos, double mass, @Nonnull MassyPoint p2) {
-        var dist = p2.pos.sub(pos);
+    /**
+     * Kick-drift-kick, the accelerations from the end of the last step are reused for the first kick
+     * so there's only one force evaluation per step
+     */
+    private void leapfrog(double ts) {
+        var p = this.particles;
+        var n = p.size();
 
-        var distSqrt = Math.sqrt(dist.abs());
-        if (distSqrt < 1)
-            distSqrt = 1;
+        if (!this.accelerationsCurrent || this.anyAccelerationUnknown()) {
+            this.buildTree();
+            this.accelerate(0);
+        }
 
-        var accel = (this.g * p2.mass) / distSqrt;
+        var started = System.nanoTime();
 
-        return dist.normal().scale(accel);
-    }
+        ParallelRange.forEach(this.pool, n, (int from, int to) -> {
+            for (var i = from; i < to; i++) {
+                p.vx[i] += p.ax[i] * ts / 2;
+                p.vy[i] += p.ay[i] * ts / 2;
+                p.x[i] += p.vx[i] * ts;
+                p.y[i] += p.vy[i] * ts;
+            }
+        });
 
-    @Nonnull
-    private Vec2 calcAccelInner(@Nonnull Vec2 pos, double mass, @Nonnull ArrayList<MassyPoint> points) {
+        this.time(Phase.DRIFT, started);
 
+        this.buildTree();
+        this.accelerate(ts / 2);
+        this.accelerationsCurrent = true;
+    }
 
-        var accel = points.parallelStream()
-                .map((p) -> this.calcAccelForPoint(pos, mass, p))
-                .reduce(Vec2::add)
-                .orElseGet(() -> new Vec2(0, 0));
+    /**
+     * Find the acceleration of every body from the tree, store it on the particles and kick them with it
+     * @param kick how long to kick the velocities for
+     */
+    private void accelerate(double kick) {
+        var p = this.particles;
+        this.forceEvaluations += p.size();
+        var suggestion = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        var diagnostics = this.diagnose ? new Diagnostics() : null;
+        var started = System.nanoTime();
+
+        ParallelRange.forEach(this.pool, p.size(), (int from, int to) -> {
+            var forces = this.newEvaluator();
+            var chunk = diagnostics != null ? new Diagnostics() : null;
+            var shortest = Double.POSITIVE_INFINITY;
+
+            for (var k = from; k < to; k++) {
+                var i = this.bodyAt(k);
+                forces.accelerate(i, p.x[i], p.y[i], p.x[i], p.y[i]);
+
+                p.ax[i] = forces.ax;
+                p.ay[i] = forces.ay;
+                p.vx[i] += forces.ax * kick;
+                p.vy[i] += forces.ay * kick;
+                shortest = Math.min(shortest, this.bodyTimestep(i));
+
+                if (chunk != null) {
+                    chunk.add(p.x[i], p.y[i], p.vx[i], p.vy[i], p.mass[i], forces.potential);
+                }
+            }
 
-        if (Double.isNaN(accel.x) || Double.isNaN(accel.y)) {
-            return new Vec2(0, 0);
-        }
+            suggestion.accumulate(shortest);
+            this.addDiagnostics(diagnostics, chunk);
+        });
 
-        return accel;
+        this.time(Phase.FORCES, started);
+        this.suggestedTimestep = suggestion.get();
+        this.diagnostics = diagnostics;
     }
 
     /**
-     * calculate the new position and velocity for a particle
-     * @param p1 the point to focus on for calculating force
-     * @param pointsStream the points affecting it
-     * @param ts the timestep
-     * @return a 2-tuple of new pos, new velocity
+     * Leapfrog with block timesteps. The step is split into 2^maxTimeBin substeps, a body in bin b kicks every
+     * 2^(maxTimeBin - b) substeps, and the simulation only stops at substeps where some body's step ends.
+     * Every body drifts to each stop but only those whose step ends there get a new acceleration
      */
-    @Nonnull private Tuple2<Vec2, Vec2> calcValuesFromGravity(@Nonnull T p1, @Nonnull Stream<MassyPoint> pointsStream, double ts) {
-        var pos = p1.getPos();
-        var vel = p1.getVelocity();
-        var mass = p1.getMass();
+    private void blockTimesteps(double ts) {
+        var p = this.particles;
+        var n = p.size();
+        var substeps = 1 << this.maxTimeBin;
+        var h = ts / substeps;
+
+        if (!this.accelerationsCurrent || this.anyAccelerationUnknown()) {
+            this.buildTree();
+            this.accelerate(0);
+        }
 
-        var points = pointsStream
-                .filter((p) -> p.linkedElement != p1)
-                .collect(Collectors.toCollection(ArrayList::new));
+        // bins are chosen against the step being run, a controller can make it longer than the last one
+        for (var i = 0; i < n; i++) {
+            p.timeBin[i] = this.chooseTimeBin(i, ts, 0, this.maxTimeBin);
+        }
 
-        // perform runge kutta
-        var k1dx = this.calcAccelInner(pos, mass, points);
-        var k2dx = this.calcAccelInner(pos.add(vel.scale(ts / 2)), mass, points);
-        var k2x = vel.add(vel).scale(ts / 2);
-        var k3dx = this.calcAccelInner(pos.add(k2x.scale(ts / 2)), mass, points);
-        var k3x = vel.add(k2dx).scale(ts / 2);
-        var k4dx = this.calcAccelInner(pos.add(k3x.scale(ts)), mass, points);
-        var k4x = vel.add(k3dx).scale(ts);
+        // every step starts at the start of the block
+        var started = System.nanoTime();
 
-        var dx = vel.add(k1dx.add(k2dx.scale(2)).add(k3dx.scale(2)).add(k4dx).scale(ts / 6));
-        var d =  pos.add(vel.add(k2x.scale(2)).add(k3x.scale(2)).add(k4x).scale(ts / 6));
+        ParallelRange.forEach(this.pool, n, (int from, int to) -> {
+            for (var i = from; i < to; i++) {
+                var dt = ts / (1 << p.timeBin[i]);
+                p.vx[i] += p.ax[i] * dt / 2;
+                p.vy[i] += p.ay[i] * dt / 2;
+            }
+        });
 
-        return new Tuple2<>(d, dx);
-    }
+        this.time(Phase.DRIFT, started);
 
-    private class MassyPoint implements HasPosition, HasMass {
-        @Nonnull private final Vec2 pos;
-        private final double mass;
+        if (this.active.length < n) {
+            this.active = new int[n];
+        }
 
-        @Nullable final T linkedElement;
+        var t = 0;
+        while (t < substeps) {
+            // the deepest bin has the next step to end
+            var deepest = 0;
+            for (var i = 0; i < n; i++) {
+                deepest = Math.max(deepest, p.timeBin[i]);
+            }
 
-        public MassyPoint(@Nonnull Vec2 pos, double mass) {
-            this.pos = pos;
-            this.mass = mass;
-            this.linkedElement = null;
-        }
+            var stride = substeps >> deepest;
+            var next = (t / stride + 1) * stride;
+            var drift = (next - t) * h;
 
-        /**
-         * represents either an object with mass or the centre of mass of set of objects
-         * @param pos position of the point
-         * @param mass mass of the point
-         * @param linkedElement if the massy point is linked to an element this is non null
-         */
-        MassyPoint(@Nonnull Vec2 pos, double mass, @Nullable T linkedElement) {
-            this.pos = pos;
-            this.mass = mass;
-            this.linkedElement = linkedElement;
-        }
+            var drifting = System.nanoTime();
 
-        @Nonnull
-        @Override
-        public Vec2 getPos() {
-            return this.pos;
-        }
+            ParallelRange.forEach(this.pool, n, (int from, int to) -> {
+                for (var i = from; i < to; i++) {
+                    p.x[i] += p.vx[i] * drift;
+                    p.y[i] += p.vy[i] * drift;
+                }
+            });
 
-        @Override
-        public double getMass() {
-            return this.mass;
-        }
+            this.time(Phase.DRIFT, drifting);
 
-        @Nonnull
-        MassyPoint merge(@Nonnull MassyPoint other) {
-            var combinedMass = this.mass + other.mass;
+            t = next;
+            this.buildTree();
 
-            if (combinedMass == 0.0f) {
-                // special case when both masses are zero
-                return new MassyPoint(this.pos.add(other.pos).scale(0.5f), 0);
+            var activeCount = 0;
+            for (var k = 0; k < n; k++) {
+                var i = this.bodyAt(k);
+                if (t % (substeps >> p.timeBin[i]) == 0) {
+                    this.active[activeCount++] = i;
+                }
             }
 
-            var pos = this.pos.scale(this.mass).add(other.pos.scale(other.mass)).scale(1.0f / combinedMass);
+            var active = this.active;
+            var now = t;
+            this.forceEvaluations += activeCount;
+
+            // every body is active at the end of the block
+            var diagnostics = this.diagnose && now == substeps ? new Diagnostics() : null;
+            var evaluating = System.nanoTime();
+
+            ParallelRange.forEach(this.pool, activeCount, (int from, int to) -> {
+                var forces = this.newEvaluator();
+                var chunk = diagnostics != null ? new Diagnostics() : null;
+                forces.findPotential = chunk != null;
+
+                for (var j = from; j < to; j++) {
+                    var i = active[j];
+                    forces.accelerate(i, p.x[i], p.y[i], p.x[i], p.y[i]);
+
+                    // close the step that just ended
+                    var dt = ts / (1 << p.timeBin[i]);
+                    p.ax[i] = forces.ax;
+                    p.ay[i] = forces.ay;
+                    p.vx[i] += forces.ax * dt / 2;
+                    p.vy[i] += forces.ay * dt / 2;
+
+                    if (chunk != null) {
+                        chunk.add(p.x[i], p.y[i], p.vx[i], p.vy[i], p.mass[i], forces.potential);
+                    }
+
+                    if (now == substeps)
+                        continue;
+
+                    // and open the next one
+                    p.timeBin[i] = this.chooseTimeBin(i, ts, now, p.timeBin[i]);
+                    dt = ts / (1 << p.timeBin[i]);
+                    p.vx[i] += forces.ax * dt / 2;
+                    p.vy[i] += forces.ay * dt / 2;
+                }
+
+                this.addDiagnostics(diagnostics, chunk);
+            });
+
+            this.time(Phase.FORCES, evaluating);
 
-            return new MassyPoint(pos, combinedMass);
+            if (diagnostics != null) {
+                this.diagnostics = diagnostics;
+            }
         }
 
-        @Override
-        public String toString() {
-            return "MassyPoint{" +
-                    "pos=" + this.pos +
-                    ", mass=" + this.mass +
-                    '}';
+        var shortest = Double.POSITIVE_INFINITY;
+        for (var i = 0; i < n; i++) {
+            shortest = Math.min(shortest, this.bodyTimestep(i));
         }
+
+        // the whole block can be as long as the deepest bin allows for the body wanting the shortest step
+        this.suggestedTimestep = shortest * substeps;
+
+        this.accelerationsCurrent = true;
     }
 
-    class CalculateWeights implements QuadtreeFolder<T, MassyPoint> {
-        private HashMap<List<Direction>, MassyPoint> centresOfMass;
+    /**
+     * Pick the bin of a body from {@link #bodyTimestep}.
+     * Moving to a shorter step can happen at any time, but a longer step has to start on one of its own boundaries
+     * @param t the substep the body's next step would start at
+     * @param current the bin the body is in now
+     */
+    private int chooseTimeBin(int i, double ts, int t, int current) {
+        var dt = this.bodyTimestep(i);
 
-        CalculateWeights() {
-            this.centresOfMass = new HashMap<>();
+        var bin = 0;
+        while (bin < this.maxTimeBin && ts / (1 << bin) > dt) {
+            bin++;
         }
 
-        @Nonnull HashMap<List<Direction>, MassyPoint> calculate(@Nonnull Quadtree<T> tree) {
-            tree.applyFold(this);
-            return this.centresOfMass;
+        var substeps = 1 << this.maxTimeBin;
+        while (bin < current && t % (substeps >> bin) != 0) {
+            bin++;
         }
 
-        @Nonnull
-        @Override
-        public MassyPoint visitEmpty(@Nonnull List<Direction> path) {
-            // nodes with no elements clearly have no mass
-            return new MassyPoint(new Vec2(0, 0), 0);
+        return bin;
+    }
+
+    /**
+     * The step a body can take with its last acceleration, long enough for its velocity to change by a fraction
+     * `timestepAccuracy`, or for it to move that fraction of the core radius from rest if that's longer
+     */
+    private double bodyTimestep(int i) {
+        var p = this.particles;
+        var accel = Math.hypot(p.ax[i], p.ay[i]);
+
+        if (!(accel > 0.0))
+            return Double.POSITIVE_INFINITY;
+
+        var byVelocity = this.timestepAccuracy * Math.hypot(p.vx[i], p.vy[i]) / accel;
+        var byAcceleration = Math.sqrt(2 * this.timestepAccuracy * CORE_RADIUS / accel);
+        return Math.max(byVelocity, byAcceleration);
+    }
+
+    /**
+     * @return the body evaluated k-th, in tree order so neighbours are evaluated one after another,
+     *         or in index order if there's no tree this step
+     */
+    private int bodyAt(int k) {
+        return this.treeBuilt ? this.tree.getBody(k) : k;
+    }
+
+    /**
+     * @return an evaluator for this step's engine, finding potentials too if they're being summed
+     */
+    @Nonnull
+    private ForceEvaluator newEvaluator() {
+        var forces = this.stepEngine.newEvaluator(this.tree);
+        forces.findPotential = this.diagnose;
+        return forces;
+    }
+
+    /**
+     * Add the time since `since` to a phase
+     * @return the time now
+     */
+    private long time(@Nonnull Phase phase, long since) {
+        var now = System.nanoTime();
+        this.phaseNanos[phase.ordinal()] += now - since;
+        return now;
+    }
+
+    /**
+     * Add what one chunk of a force evaluation summed to the total
+     */
+    private void addDiagnostics(@Nullable Diagnostics total, @Nullable Diagnostics chunk) {
+        if (total == null || chunk == null)
+            return;
+
+        synchronized (total) {
+            total.add(chunk);
         }
+    }
+
+    /**
+     * @return if any body was added since the last force evaluation
+     */
+    private boolean anyAccelerationUnknown() {
+        var p = this.particles;
 
-        @Nonnull
-        @Override
-        public MassyPoint visitLeaf(@Nonnull List<Direction> path, @Nonnull T elem) {
-            var massPoint = new MassyPoint(elem.getPos(), elem.getMass(), elem);
-            this.centresOfMass.put(path, massPoint);
-            return massPoint;
+        for (var i = 0; i < p.size(); i++) {
+            if (Double.isNaN(p.ax[i]))
+                return true;
         }
 
-        @Nonnull
-        @Override
-        public MassyPoint visitQuad(@Nonnull List<Direction> path, @Nonnull MassyPoint nw, @Nonnull MassyPoint ne, @Nonnull MassyPoint sw, @Nonnull MassyPoint se) {
-            var massPoint = nw.merge(ne).merge(sw).merge(se);
-            this.centresOfMass.put(path, massPoint);
-            return massPoint;
+        return false;
+    }
+
+    /**
+     * @param integrator how to move the bodies forward each step, runge kutta by default
+     */
+    void setIntegrator(@Nonnull Integrator integrator) {
+        this.integrator = integrator;
+        this.accelerationsCurrent = false;
+    }
+
+    /**
+     * @param maxTimeBin with block timesteps, the shortest step a body can take is the step divided by 2^maxTimeBin,
+     *                   from 0 to 30
+     */
+    void setMaxTimeBin(@Nonnegative int maxTimeBin) {
+        // 2^maxTimeBin substeps have to fit in an int
+        if (maxTimeBin < 0 || maxTimeBin > 30)
+            throw new IllegalArgumentException("maxTimeBin must be from 0 to 30");
+
+        this.maxTimeBin = maxTimeBin;
+        // bodies may be in bins past the new limit, so every bin is chosen again
+        this.accelerationsCurrent = false;
+    }
+
+    /**
+     * @param timestepAccuracy the fraction a body's velocity may change by in one of its steps, this picks the bins
+     *                         of block timesteps and the steps suggested to a {@link TimestepController}
+     */
+    void setTimestepAccuracy(double timestepAccuracy) {
+        this.timestepAccuracy = timestepAccuracy;
+    }
+
+    /**
+     * @return the longest step every body could take given its last acceleration, NaN before the first step
+     */
+    double getSuggestedTimestep() {
+        return this.suggestedTimestep;
+    }
+
+    /**
+     * @return the tree the last step built, it's rebuilt or updated by the next one.
+     *         null if the last step summed forces directly without building one
+     */
+    @Nullable
+    FlatQuadtree getTree() {
+        return this.treeBuilt ? this.tree : null;
+    }
+
+    /**
+     * @param diagnose if true energy and momentum are summed while the forces are evaluated,
+     *                 this makes evaluating forces a little slower
+     */
+    void setDiagnostics(boolean diagnose) {
+        this.diagnose = diagnose;
+        this.diagnostics = null;
+    }
+
+    /**
+     * Energy and momentum at the last force evaluation covering every body. With runge kutta that's the start
+     * of the last step, otherwise it's the end of it
+     * @return null if they aren't being summed or no step has been run since
+     */
+    @Nullable
+    Diagnostics getDiagnostics() {
+        return this.diagnostics;
+    }
+
+    /**
+     * @return how many times the acceleration of a body has been evaluated since the simulation was made
+     */
+    long getForceEvaluations() {
+        return this.forceEvaluations;
+    }
+
+    /**
+     * @return total time spent in a phase of the step since the simulation was made
+     */
+    long getPhaseNanos(@Nonnull Phase phase) {
+        return this.phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @param incrementalTree if true the tree is kept between steps and only updated where bodies moved,
+     *                        this is faster when most bodies stay in the same leaf from step to step
+     */
+    void setIncrementalTree(boolean incrementalTree) {
+        this.incrementalTree = incrementalTree;
+    }
+
+    /**
+     * @param engine how to find the gravity on each body, {@link BarnesHut} with this simulation's theta by default
+     */
+    void setEngine(@Nonnull GravityEngine engine) {
+        this.engine = engine;
+        this.accelerationsCurrent = false;
+    }
+
+    /**
+     * Always sum the force between every pair of bodies, exact but slow for large simulations
+     */
+    void useDirectSum() {
+        this.setEngine(this.directSum);
+    }
+
+    /**
+     * @param directThreshold the number of bodies at or below which forces are summed directly whatever the engine,
+     *                        0 to always use the engine
+     */
+    void setDirectThreshold(int directThreshold) {
+        this.directThreshold = directThreshold;
+    }
+
+    /**
+     * Switch to the fast multipole method
+     * @param order the highest order of the expansions
+     */
+    void useFastMultipole(int order) {
+        this.setEngine(new FastMultipole(this.g, order));
+    }
+
+    /**
+     * Switch back to Barnes-Hut
+     */
+    void useBarnesHut() {
+        this.setEngine(new BarnesHut(this.theta, this.g));
+    }
+
+    /**
+     * Switch to Barnes-Hut, walking the tree once per leaf rather than once per body
+     */
+    void useGroupWalk() {
+        this.setEngine(new BarnesHut(this.theta, this.g, true));
+    }
+
+    /**
+     * @param quadrupoles if true far away nodes also apply their quadrupole moment, not just their mass,
+     *                    this is more accurate for the same theta so theta can be raised
+     */
+    void setQuadrupoles(boolean quadrupoles) {
+        this.tree.setQuadrupoles(quadrupoles);
+    }
+
+    /**
+     * Run the simulation on its own pool rather than the common pool, the pool stays the caller's to shut down
+     * @param pool the pool to build the tree and evaluate forces on
+     */
+    void setPool(@Nonnull ForkJoinPool pool) {
+        this.pool = pool;
+        this.tree.setPool(pool);
+    }
+
+    /**
+     * calculate the new position and velocity for a particle with runge kutta and write them back
+     * @param forces evaluator to find the accelerations with
+     * @param i index of the particle
+     * @param ts the timestep
+     * @param diagnostics where to add the body's energy and momentum at the start of the step, if anywhere
+     */
+    private void integrate(@Nonnull ForceEvaluator forces, int i, double ts, @Nullable Diagnostics diagnostics) {
+        var p = this.particles;
+        var x = p.x[i];
+        var y = p.y[i];
+        var vx = p.vx[i];
+        var vy = p.vy[i];
+
+        forces.accelerate(i, x, y, x, y);
+        var k1dx = forces.ax;
+        var k1dy = forces.ay;
+        p.ax[i] = k1dx;
+        p.ay[i] = k1dy;
+
+        // the potential is only needed at the start
+        var findPotential = forces.findPotential;
+        forces.findPotential = false;
+
+        if (diagnostics != null) {
+            diagnostics.add(x, y, vx, vy, p.mass[i], forces.potential);
         }
+
+        forces.accelerate(i, x, y, x + vx * ts / 2, y + vy * ts / 2);
+        var k2dx = forces.ax;
+        var k2dy = forces.ay;
+        var k2x = (vx + vx) * ts / 2;
+        var k2y = (vy + vy) * ts / 2;
+
+        forces.accelerate(i, x, y, x + k2x * ts / 2, y + k2y * ts / 2);
+        var k3dx = forces.ax;
+        var k3dy = forces.ay;
+        var k3x = (vx + k2dx) * ts / 2;
+        var k3y = (vy + k2dy) * ts / 2;
+
+        forces.accelerate(i, x, y, x + k3x * ts, y + k3y * ts);
+        var k4dx = forces.ax;
+        var k4dy = forces.ay;
+        var k4x = (vx + k3dx) * ts;
+        var k4y = (vy + k3dy) * ts;
+
+        p.vx[i] = vx + (k1dx + k2dx * 2 + k3dx * 2 + k4dx) * (ts / 6);
+        p.vy[i] = vy + (k1dy + k2dy * 2 + k3dy * 2 + k4dy) * (ts / 6);
+        p.x[i] = x + (vx + k2x * 2 + k3x * 2 + k4x) * (ts / 6);
+        p.y[i] = y + (vy + k2y * 2 + k3y * 2 + k4y) * (ts / 6);
+        forces.findPotential = findPotential;
     }
 }
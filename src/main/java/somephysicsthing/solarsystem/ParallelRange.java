@@ -0,0 +1,58 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of indices into chunks and runs them on a pool, each chunk is run by a plain loop
+ */
+class ParallelRange extends RecursiveAction {
+    private static final int CHUNKS_PER_THREAD = 8;
+    private static final int MIN_CHUNK = 64;
+
+    /**
+     * Something to run over a chunk of a range
+     */
+    interface Body {
+        void apply(int from, int to);
+    }
+
+    @Nonnull private final Body body;
+    private final int from, to;
+    private final int grain;
+
+    private ParallelRange(@Nonnull Body body, int from, int to, int grain) {
+        this.body = body;
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+    }
+
+    /**
+     * Run `body` over [0, n) in chunks on `pool`, returning once every chunk is done
+     */
+    static void forEach(@Nonnull ForkJoinPool pool, @Nonnegative int n, @Nonnull Body body) {
+        var grain = Math.max(MIN_CHUNK, n / (pool.getParallelism() * CHUNKS_PER_THREAD));
+
+        if (n <= grain) {
+            body.apply(0, n);
+            return;
+        }
+
+        pool.invoke(new ParallelRange(body, 0, n, grain));
+    }
+
+    @Override
+    protected void compute() {
+        if (this.to - this.from <= this.grain) {
+            this.body.apply(this.from, this.to);
+            return;
+        }
+
+        var mid = (this.from + this.to) >>> 1;
+        invokeAll(new ParallelRange(this.body, this.from, mid, this.grain),
+                new ParallelRange(this.body, mid, this.to, this.grain));
+    }
+}
@@ -0,0 +1,179 @@
+package somephysicsthing.solarsystem;
+
+import somephysicsthing.solarsystem.propertytraits.HasMass;
+import somephysicsthing.solarsystem.propertytraits.MutPosition;
+import somephysicsthing.solarsystem.propertytraits.MutVelocity;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Structure-of-arrays store for every body in a simulation.
+ *
+ * The engine reads and writes the arrays directly, anything that wants an object
+ * per body should use a {@link Body} view over an index instead.
+ */
+public class Particles {
+    @Nonnull double[] x, y;
+    @Nonnull double[] vx, vy;
+    @Nonnull double[] mass;
+
+    /**
+     * acceleration of each body as of the last force evaluation, NaN until a body has had one
+     */
+    @Nonnull double[] ax, ay;
+
+    /**
+     * which power of two the timestep of each body is divided by, when using block timesteps
+     */
+    @Nonnull int[] timeBin;
+
+    /**
+     * stable identifier of each body, unlike the index this survives {@link #retain}
+     */
+    @Nonnull int[] id;
+
+    private int size;
+    private int nextId;
+
+    public Particles(@Nonnegative int capacity) {
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.vx = new double[capacity];
+        this.vy = new double[capacity];
+        this.mass = new double[capacity];
+        this.ax = new double[capacity];
+        this.ay = new double[capacity];
+        this.timeBin = new int[capacity];
+        this.id = new int[capacity];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Add a body to the store
+     * @param pos initial position of the body
+     * @param vel initial velocity of the body
+     * @param mass mass of the body
+     * @return the index of the new body
+     */
+    int add(@Nonnull Vec2 pos, @Nonnull Vec2 vel, double mass) {
+        if (this.size == this.x.length) {
+            this.grow(Math.max(16, this.size * 2));
+        }
+
+        var idx = this.size++;
+
+        this.x[idx] = pos.x;
+        this.y[idx] = pos.y;
+        this.vx[idx] = vel.x;
+        this.vy[idx] = vel.y;
+        this.mass[idx] = mass;
+        this.ax[idx] = Double.NaN;
+        this.ay[idx] = Double.NaN;
+        this.timeBin[idx] = 0;
+        this.id[idx] = this.nextId++;
+
+        return idx;
+    }
+
+    /**
+     * Drop every body that isn't in `survivors`, compacting the arrays and re-pointing the views.
+     *
+     * NOTE: Assumes that `survivors` are views of this store and are ordered by index
+     * @param survivors the bodies to keep
+     */
+    void retain(@Nonnull List<? extends Body> survivors) {
+        var to = 0;
+
+        for (var body : survivors) {
+            var from = body.index;
+
+            this.x[to] = this.x[from];
+            this.y[to] = this.y[from];
+            this.vx[to] = this.vx[from];
+            this.vy[to] = this.vy[from];
+            this.mass[to] = this.mass[from];
+            this.ax[to] = this.ax[from];
+            this.ay[to] = this.ay[from];
+            this.timeBin[to] = this.timeBin[from];
+            this.id[to] = this.id[from];
+
+            body.index = to++;
+        }
+
+        this.size = to;
+    }
+
+    private void grow(int capacity) {
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.vx = Arrays.copyOf(this.vx, capacity);
+        this.vy = Arrays.copyOf(this.vy, capacity);
+        this.mass = Arrays.copyOf(this.mass, capacity);
+        this.ax = Arrays.copyOf(this.ax, capacity);
+        this.ay = Arrays.copyOf(this.ay, capacity);
+        this.timeBin = Arrays.copyOf(this.timeBin, capacity);
+        this.id = Arrays.copyOf(this.id, capacity);
+    }
+
+    /**
+     * A thin view over a single body in the store
+     */
+    public static class Body implements MutVelocity, MutPosition, HasMass {
+        @Nonnull final Particles particles;
+        int index;
+
+        Body(@Nonnull Particles particles, int index) {
+            this.particles = particles;
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        @Override
+        public double getMass() {
+            return this.particles.mass[this.index];
+        }
+
+        @Nonnull
+        @Override
+        public Vec2 getPos() {
+            return new Vec2(this.particles.x[this.index], this.particles.y[this.index]);
+        }
+
+        @Override
+        public double getX() {
+            return this.particles.x[this.index];
+        }
+
+        @Override
+        public double getY() {
+            return this.particles.y[this.index];
+        }
+
+        @Override
+        public void setPosition(@Nonnull Vec2 position) {
+            this.particles.x[this.index] = position.x;
+            this.particles.y[this.index] = position.y;
+        }
+
+        @Nonnull
+        @Override
+        public Vec2 getVelocity() {
+            return new Vec2(this.particles.vx[this.index], this.particles.vy[this.index]);
+        }
+
+        @Override
+        public void setVelocity(@Nonnull Vec2 velocity) {
+            this.particles.vx[this.index] = velocity.x;
+            this.particles.vy[this.index] = velocity.y;
+        }
+    }
+}
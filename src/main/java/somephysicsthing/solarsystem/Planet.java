@@ -2,40 +2,45 @@ package somephysicsthing.solarsystem;
 
 import somephysicsthing.solarsystem.bounded.Point;
 import somephysicsthing.solarsystem.bounded.Rectangle;
-import somephysicsthing.solarsystem.propertytraits.HasMass;
-import somephysicsthing.solarsystem.propertytraits.MutPosition;
-import somephysicsthing.solarsystem.propertytraits.MutVelocity;
 
 import javax.annotation.Nonnull;
 
-public class Planet implements MutVelocity, MutPosition, HasMass {
-    @Nonnull private Vec2 pos;
-    @Nonnull private Vec2 vel;
-    private double mass;
+/**
+ * A planet is a view over a body in a {@link Particles} store, plus how to draw it
+ */
+public class Planet extends Particles.Body {
+    static final String DEFAULT_COLOUR = "#ff00ff";
+
     final String colour;
+    // the colour as RGB, parsed once here rather than every time the planet is drawn
+    final int rgb;
 
     /**
+     * @param particles the store to add the planet to
      * @param pos initial position of the planet
      * @param vel initial velocity of the planet
      * @param mass mass of the planet
      */
-    Planet(@Nonnull Vec2 pos, @Nonnull Vec2 vel, double mass) {
-        this.pos = pos;
-        this.vel = vel;
-        this.mass = mass;
-        this.colour = "#ff00ff";
+    Planet(@Nonnull Particles particles, @Nonnull Vec2 pos, @Nonnull Vec2 vel, double mass) {
+        this(particles, pos, vel, mass, DEFAULT_COLOUR);
     }
 
-    Planet(@Nonnull Vec2 pos, @Nonnull Vec2 vel, double mass, String colour) {
-        this.pos = pos;
-        this.vel = vel;
-        this.mass = mass;
+    Planet(@Nonnull Particles particles, @Nonnull Vec2 pos, @Nonnull Vec2 vel, double mass, String colour) {
+        super(particles, particles.add(pos, vel, mass));
         this.colour = colour;
+        this.rgb = Raster.parseColour(colour);
     }
 
 
     double getDiameter() {
-        return Math.max(Math.cbrt(this.mass / 1000000), 2);
+        return diameterOf(this.getMass());
+    }
+
+    /**
+     * @return how big a planet of some mass is drawn
+     */
+    static double diameterOf(double mass) {
+        return Math.max(Math.cbrt(mass / 1000000), 2);
     }
 
     /**
@@ -44,50 +49,26 @@ public class Planet implements MutVelocity, MutPosition, HasMass {
      * @return if this planet is valid in the world
      */
     boolean isValid(double worldW, double worldH) {
-        if (Double.isNaN(this.pos.x)
-                || Double.isNaN(this.pos.y)
-                || Double.isNaN(this.vel.x)
-                || Double.isNaN(this.vel.y)) {
+        var p = this.particles;
+        var i = this.index;
+
+        if (Double.isNaN(p.x[i])
+                || Double.isNaN(p.y[i])
+                || Double.isNaN(p.vx[i])
+                || Double.isNaN(p.vy[i])) {
             return false;
         }
 
-        return (new Rectangle(0, 0, worldW, worldH).contains(new Point(this.pos)));
-    }
-
-    @Override
-    public double getMass() {
-        return this.mass;
-    }
-
-    @Nonnull
-    @Override
-    public Vec2 getPos() {
-        return this.pos;
-    }
-
-    @Override
-    public void setPosition(@Nonnull Vec2 position) {
-        this.pos = position;
-    }
-
-    @Nonnull
-    @Override
-    public Vec2 getVelocity() {
-        return this.vel;
-    }
-
-    @Override
-    public void setVelocity(@Nonnull Vec2 velocity) {
-        this.vel = velocity;
+        return (new Rectangle(0, 0, worldW, worldH).contains(new Point(p.x[i], p.y[i])));
     }
 
     @Nonnull
     @Override
     public String toString() {
         return "Planet{" +
-                "pos=" + this.pos +
-                ", vel=" + this.vel +
-                ", mass=" + this.mass +
+                "pos=" + this.getPos() +
+                ", vel=" + this.getVelocity() +
+                ", mass=" + this.getMass() +
                 '}';
     }
 }
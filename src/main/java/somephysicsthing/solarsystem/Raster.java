@@ -0,0 +1,138 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pixels of an image that are drawn to directly, one int of RGB per pixel, row by row
+ */
+public class Raster {
+    // colours already parsed, there are only ever a handful
+    @Nonnull private static final ConcurrentHashMap<String, Integer> COLOURS = new ConcurrentHashMap<>();
+
+    @Nonnull private final int[] pixels;
+    private final int width, height;
+
+    /**
+     * @param pixels width * height pixels, row by row
+     */
+    public Raster(@Nonnull int[] pixels, @Nonnegative int width, @Nonnegative int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Set every pixel to one colour
+     */
+    public void clear(int rgb) {
+        Arrays.fill(this.pixels, 0, this.width * this.height, rgb);
+    }
+
+    /**
+     * Fill a circle in the same box as {@link java.awt.Graphics#fillOval} with the same arguments, the pixels whose
+     * centres are inside it. Tiny circles are filled squares
+     * @param x left of the circle
+     * @param y top of the circle
+     */
+    public void fillCircle(int x, int y, int diameter, int rgb) {
+        var pixels = this.pixels;
+        var width = this.width;
+
+        if (diameter <= 2) {
+            // too small to be round
+            var x1 = Math.min(x + Math.max(diameter, 1), width);
+            var y1 = Math.min(y + Math.max(diameter, 1), this.height);
+
+            for (var py = Math.max(y, 0); py < y1; py++) {
+                for (var px = Math.max(x, 0); px < x1; px++) {
+                    pixels[py * width + px] = rgb;
+                }
+            }
+            return;
+        }
+
+        var r = diameter / 2.0;
+        var cx = x + r;
+        var cy = y + r;
+        var y0 = Math.max(y, 0);
+        var y1 = Math.min(y + diameter, this.height);
+
+        for (var py = y0; py < y1; py++) {
+            // pixels whose centres are inside the circle
+            var dy = py + 0.5 - cy;
+            var half = Math.sqrt(Math.max(r * r - dy * dy, 0.0));
+            var x0 = Math.max((int) Math.ceil(cx - half - 0.5), 0);
+            var x1 = Math.min((int) Math.floor(cx + half - 0.5), width - 1);
+
+            for (var px = x0; px <= x1; px++) {
+                pixels[py * width + px] = rgb;
+            }
+        }
+    }
+
+    /**
+     * Draw the outline of a rectangle, the same pixels as {@link java.awt.Graphics#drawRect} with the same arguments
+     * @param x left of the rectangle
+     * @param y top of the rectangle
+     */
+    public void drawRectangle(int x, int y, int w, int h, int rgb) {
+        this.horizontalLine(x, x + w, y, rgb);
+        this.horizontalLine(x, x + w, y + h, rgb);
+        this.verticalLine(x, y, y + h, rgb);
+        this.verticalLine(x + w, y, y + h, rgb);
+    }
+
+    /**
+     * @param x0 first pixel of the line
+     * @param x1 last pixel of the line
+     */
+    private void horizontalLine(int x0, int x1, int y, int rgb) {
+        if (y < 0 || y >= this.height)
+            return;
+
+        var row = y * this.width;
+        for (var x = Math.max(x0, 0); x <= Math.min(x1, this.width - 1); x++) {
+            this.pixels[row + x] = rgb;
+        }
+    }
+
+    private void verticalLine(int x, int y0, int y1, int rgb) {
+        if (x < 0 || x >= this.width)
+            return;
+
+        for (var y = Math.max(y0, 0); y <= Math.min(y1, this.height - 1); y++) {
+            this.pixels[y * this.width + x] = rgb;
+        }
+    }
+
+    /**
+     * Find the RGB of a colour, each colour is only parsed the first time it's seen
+     * @param colour either a 24 bit hex string like "#ff0000" or the name of one of the constants in {@link Color},
+     *               anything else is white
+     */
+    public static int parseColour(@Nonnull String colour) {
+        return COLOURS.computeIfAbsent(colour, (c) -> {
+            if (c.charAt(0) == '#') {
+                return Integer.parseInt(c.substring(1, 7), 16);
+            }
+
+            try {
+                return ((Color) Color.class.getField(c).get(null)).getRGB() & 0xffffff;
+            } catch (Exception e) {
+                return Color.WHITE.getRGB() & 0xffffff;
+            }
+        });
+    }
+}
@@ -5,7 +5,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.*;
 import java.awt.event.*;
-import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * This class provides a graphical user interface to a model of the solar system
@@ -16,17 +16,17 @@ public class SolarSystem extends JFrame
 	private int width = 300;
 	private int height = 300;
 
-	@Nonnull
-	private ArrayList<SolarObject> things = new ArrayList<>();
-
-	@Nonnull
-	private ArrayList<Shape> moreThings = new ArrayList<>();
+	// for drawing whole frames straight into pixels, made the first time renderFrame is called
+	private BufferStrategy strategy;
+	// read by paint on the event thread
+	private volatile BufferedImage image;
+	private Raster raster;
 
 	/**
 	 * Create a view of the Solar System.
 	 * Once an instance of the SolarSystem class is created,
 	 * a window of the appropriate size is displayed, and
-	 * objects can be displayed in the solar system
+	 * frames can be drawn into it with {@link #renderFrame}
 	 *
 	 * @param width the width of the window in pixels.
 	 * @param height the height of the window in pixels.
@@ -45,121 +45,63 @@ public class SolarSystem extends JFrame
 
 	/**
 	 * A method called by the operating system to draw onto the screen - <p><B>YOU DO NOT (AND SHOULD NOT) NEED TO CALL THIS METHOD.</b></p>
+	 * Repaints from the system are ignored once frames are rendered, this just shows the last one if there is one
 	 */
 	public void paint (@Nonnull Graphics gr)
 	{
-		BufferedImage i = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		Graphics2D g = i.createGraphics();
-		
-		//g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		BufferedImage image = this.image;
 
-		synchronized (this)
+		if (image == null)
 		{
-		    g.setColor(this.getBackground());
-			g.clearRect(0,0, this.width, this.height);
-
-			for (var s : this.moreThings) {
-				g.setColor(new Color(0x003300));
-				g.draw(s);
-			}
-
-			for(SolarObject t : this.things)
-			{
-				g.setColor(t.col);
-				g.fillOval(t.x, t.y, t.diameter, t.diameter);
-			}
-
-
-			gr.drawImage(i, 0, 0, this);
+			gr.setColor(this.getBackground());
+			gr.fillRect(0, 0, this.getWidth(), this.getHeight());
+			return;
 		}
-	}
 
-	//
-	// Shouldn't really handle colour this way, but the student's haven't been introduced
-	// to constants properly yet, and Color.getColor() doesn't seem to work... hmmm....
-	// 
-	private Color getColourFromString(@Nonnull String col)
-	{
-		Color color;
-		
-		if (col.charAt(0) == '#')
-		{
-			color = new Color(
-    	        Integer.valueOf( col.substring( 1, 3 ), 16 ),
-        	    Integer.valueOf( col.substring( 3, 5 ), 16 ),
-            	Integer.valueOf( col.substring( 5, 7 ), 16 ) );
-		} 
-		else 
-		{
-			try 
-			{
-				java.lang.reflect.Field field = Color.class.getField(col);
-				color = (Color)field.get(null);
-			} catch (Exception e) {
-				color = Color.WHITE;
-			}
-		}
-		return color;
+		gr.drawImage(image, 0, 0, this);
 	}
-	
+
 	/**
-	 * Draws a round shape in the window at the given co-ordinates that represents an object in the solar system.
-	 * The SolarSystem class uses <i>Polar Co-ordinates</i> to represent the location
-	 * of objects in the solar system.
+	 * Draws a whole frame and shows it, without going through paint or allocating anything once it's running.
+	 * The painter is given the pixels of an image that is kept from frame to frame, cleared to the background,
+	 * and the image is then copied to the window through a buffer strategy.
+	 *
+	 * Once this has been called the window ignores repaints, so it should be called again whenever there is
+	 * something new to show, from one thread only.
 	 *
-	 * @param diameter the size of the object.
-	 * @param col the colour of this object, as a string. Case insentive. <p>One of: BLACK, BLUE, CYAN, DARK_GRAY, GRAY, GREEN, LIGHT_GRAY, 
-	 * MAGENTA, ORANGE, PINK, RED, WHITE, YELLOW. Alternatively, a 24 bit hexadecimal string representation of an RGB colour is also accepted, e.g. "#FF0000"</p>
+	 * @param painter draws the frame into the pixels
 	 */
-	public void drawSolarObject(double x, double y, double diameter, @Nonnull String col)
+	public void renderFrame(@Nonnull Consumer<Raster> painter)
 	{
-		Color colour = this.getColourFromString(col);
-
-		synchronized (this)
+		if (this.strategy == null)
 		{
-			SolarObject t = new SolarObject((int) x, (int) y, (int) diameter, colour);
-			this.things.add(t);
+			this.setIgnoreRepaint(true);
+			this.createBufferStrategy(2);
+			this.strategy = this.getBufferStrategy();
 		}
-	}
-
-	public void drawExtra(Shape s) {
-		synchronized (this) {
-			this.moreThings.add(s);
-		}
-	}
 
-	/**
-	 * Makes all objects drawn recently drawn to be made visible on the screen.
-	 *  
-	 * Once called, all suns, planets and moons are displayed in the window.
-	 */
-	public void finishedDrawing()
-	{
-		this.repaint();
-		try {
-			Thread.sleep(10);
-		} catch (InterruptedException ignored) {
-		}
-		synchronized (this)
+		if (this.image == null || this.image.getWidth() != this.getWidth() || this.image.getHeight() != this.getHeight())
 		{
-			this.things.clear();
-			this.moreThings.clear();
+			this.image = new BufferedImage(Math.max(this.getWidth(), 1), Math.max(this.getHeight(), 1), BufferedImage.TYPE_INT_RGB);
+			int[] pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+			this.raster = new Raster(pixels, this.image.getWidth(), this.image.getHeight());
 		}
-	}
-	
-	private static class SolarObject
-	{
-		public int x;
-		public int y;
-		public int diameter;
-		public Color col;
 
-		public SolarObject(int x, int y, int diameter, Color col)
+		this.raster.clear(this.getBackground().getRGB() & 0xffffff);
+		painter.accept(this.raster);
+
+		do
 		{
-			this.x = x;
-			this.y = y;
-			this.diameter = diameter;
-			this.col = col;
-		}
+			do
+			{
+				Graphics g = this.strategy.getDrawGraphics();
+				g.drawImage(this.image, 0, 0, null);
+				g.dispose();
+			} while (this.strategy.contentsRestored());
+
+			this.strategy.show();
+		} while (this.strategy.contentsLost());
+
+		Toolkit.getDefaultToolkit().sync();
 	}
 }
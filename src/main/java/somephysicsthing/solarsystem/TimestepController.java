@@ -0,0 +1,99 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Picks the timestep of each step from the one the simulation suggests after its last force evaluation.
+ *
+ * Steps are kept between a minimum and a maximum and only allowed to grow by so much from one step to the next,
+ * the most recent steps taken are kept so they can be reported.
+ */
+class TimestepController {
+    private static final double DEFAULT_MAX_GROWTH = 2.0;
+    private static final int HISTORY = 1024;
+
+    private final double minTimestep, maxTimestep;
+    private double maxGrowth = DEFAULT_MAX_GROWTH;
+
+    @Nonnull private final double[] history = new double[HISTORY];
+    private long steps = 0;
+    private double elapsed = 0;
+
+    /**
+     * @param minTimestep the shortest step that will be taken, however much the simulation wants a shorter one
+     * @param maxTimestep the longest step that will be taken
+     */
+    TimestepController(double minTimestep, double maxTimestep) {
+        if (minTimestep <= 0 || maxTimestep < minTimestep)
+            throw new IllegalArgumentException("need 0 < minTimestep <= maxTimestep");
+
+        this.minTimestep = minTimestep;
+        this.maxTimestep = maxTimestep;
+    }
+
+    /**
+     * Pick the next step and record it
+     * @param suggested the step the simulation suggests, NaN if it doesn't have one yet
+     * @return the step to take
+     */
+    double next(double suggested) {
+        // start as carefully as we can and let it grow
+        var ts = Double.isNaN(suggested) ? this.minTimestep : suggested;
+
+        if (this.steps > 0) {
+            ts = Math.min(ts, this.getLast() * this.maxGrowth);
+        }
+
+        ts = Math.max(this.minTimestep, Math.min(this.maxTimestep, ts));
+
+        this.history[(int) (this.steps % HISTORY)] = ts;
+        this.steps++;
+        this.elapsed += ts;
+
+        return ts;
+    }
+
+    /**
+     * @return the last step taken, NaN if none have been
+     */
+    double getLast() {
+        if (this.steps == 0)
+            return Double.NaN;
+
+        return this.history[(int) ((this.steps - 1) % HISTORY)];
+    }
+
+    /**
+     * @return the most recent steps taken, oldest first
+     */
+    @Nonnull
+    double[] getHistory() {
+        if (this.steps <= HISTORY)
+            return Arrays.copyOf(this.history, (int) this.steps);
+
+        var start = (int) (this.steps % HISTORY);
+        var ordered = new double[HISTORY];
+        System.arraycopy(this.history, start, ordered, 0, HISTORY - start);
+        System.arraycopy(this.history, 0, ordered, HISTORY - start, start);
+        return ordered;
+    }
+
+    long getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * @return total simulated time over every step taken
+     */
+    double getElapsed() {
+        return this.elapsed;
+    }
+
+    /**
+     * @param maxGrowth how many times longer than the last step the next one may be
+     */
+    void setMaxGrowth(double maxGrowth) {
+        this.maxGrowth = maxGrowth;
+    }
+}
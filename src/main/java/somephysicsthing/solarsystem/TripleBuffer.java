@@ -0,0 +1,63 @@
+package somephysicsthing.solarsystem;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands the latest of a stream of values from one thread to another without either of them ever waiting.
+ *
+ * There are three slots, one the producer is writing, one the consumer is reading, and one holding the last value
+ * published. Publishing and picking up each swap their slot with that one in a single atomic step, so the producer
+ * never has to wait for the consumer to finish with anything and the consumer always gets the newest value,
+ * values the consumer doesn't get to in time are written over
+ */
+class TripleBuffer<T> {
+    // set on the middle slot's index when it holds something the consumer hasn't picked up
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    @Nonnull private final Object[] slots;
+    @Nonnull private final AtomicInteger middle = new AtomicInteger(1);
+
+    // only touched by the producer and the consumer respectively
+    private int back = 0;
+    private int front = 2;
+
+    /**
+     * @param factory makes each of the three values that are written to and read from in turn
+     */
+    TripleBuffer(@Nonnull Supplier<T> factory) {
+        this.slots = new Object[]{factory.get(), factory.get(), factory.get()};
+    }
+
+    /**
+     * @return the value for the producer to write to, the consumer won't see it until it's published
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    T getBack() {
+        return (T) this.slots[this.back];
+    }
+
+    /**
+     * Publish the value the producer has written, {@link #getBack} gives a different one afterwards
+     */
+    void publish() {
+        this.back = this.middle.getAndSet(this.back | FRESH) & INDEX;
+    }
+
+    /**
+     * @return the last value published, or the one returned last time if nothing has been published since.
+     *         It's the consumer's until the next call
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    T getLatest() {
+        if ((this.middle.get() & FRESH) != 0) {
+            this.front = this.middle.getAndSet(this.front) & INDEX;
+        }
+
+        return (T) this.slots[this.front];
+    }
+}
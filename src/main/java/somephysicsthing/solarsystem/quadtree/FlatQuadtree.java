@@ -0,0 +1,1025 @@
+package somephysicsthing.solarsystem.quadtree;
+
+import somephysicsthing.solarsystem.bounded.Bounded;
+import somephysicsthing.solarsystem.bounded.Rectangle;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A quadtree stored in flat primitive arrays, nodes are referred to by their index.
+ *
+ * The four children of a node are always allocated next to each other in NW, NE, SW, SE order,
+ * and bodies are stored as a permutation of their indices so that every node owns a contiguous
+ * run of it. All of the arrays are kept between builds so rebuilding the tree every step doesn't
+ * allocate once they have grown large enough.
+ *
+ * After a build {@link #computeMonopoles} stores the mass and centre of mass of every node on the node itself,
+ * and if {@link #setQuadrupoles} is on, the second moments of the mass about the centre of mass too.
+ *
+ * Between steps {@link #update} can be used instead of {@link #build}, it keeps the tree and only moves
+ * the bodies that have left their leaf. {@link #buildMorton} bulk loads the tree from bodies sorted into
+ * Morton order instead of partitioning them level by level.
+ *
+ * Large builds are split into fork/join tasks per quadrant on the tree's pool. Nodes are then claimed
+ * from the arrays atomically, if they run out the build starts again with twice as many nodes.
+ */
+public class FlatQuadtree {
+    public static final int NO_CHILD = -1;
+
+    private static final int DEFAULT_MAX_DEPTH = 24;
+    private static final double DEFAULT_MAX_MOVED_FRACTION = 0.1;
+    private static final int PARALLEL_CUTOFF = 1 << 13;
+
+    private final double width, height;
+    private final int leafCapacity;
+    private final int maxDepth;
+    private double maxMovedFraction = DEFAULT_MAX_MOVED_FRACTION;
+    private boolean quadrupoles = false;
+    @Nonnull private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // node arrays
+    @Nonnull private int[] child;
+    @Nonnull private int[] first;
+    @Nonnull private int[] count;
+    @Nonnull private double[] cx, cy;
+    @Nonnull private double[] halfW, halfH;
+    @Nonnull private double[] mass, comX, comY;
+    // index of the heaviest body in each node, for drawing a node as that body
+    @Nonnull private int[] heaviest;
+    // only kept up to date when quadrupoles are on
+    @Nonnull private double[] qxx, qxy, qyy;
+    private int nodeCount;
+    private int liveNodeCount;
+
+    // while a parallel build is running nodes are claimed from here instead of nodeCount
+    @Nonnull private final AtomicInteger sharedNodeCount = new AtomicInteger();
+    private boolean building;
+    private volatile boolean outOfNodes;
+
+    // body permutation, order[first[n]] .. order[first[n] + count[n] - 1] are the bodies in node n.
+    // bodies outside the tree's region are kept after the root's run
+    @Nonnull private int[] order;
+    private int bodies = -1;
+
+    // scratch space for incremental updates
+    @Nonnull private int[] newOrder;
+    @Nonnull private int[] movers;
+    @Nonnull private boolean[] moved;
+    @Nonnull private int[] nextArrival;
+    @Nonnull private int[] arrivals;
+
+    @Nonnull private final MortonSort morton = new MortonSort();
+    private boolean mortonBuild = false;
+
+    // copies of the bodies in tree order, taken when the monopoles are computed
+    @Nonnull private double[] bodyX, bodyY, bodyMass;
+
+    // the leaf each body is in, by body index, also filled in when the monopoles are computed
+    @Nonnull private int[] leafOf;
+
+    public FlatQuadtree(double width, double height) {
+        this(width, height, 1, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param width width of the region covered by the tree, centred on the origin
+     * @param height height of the region covered by the tree, centred on the origin
+     * @param leafCapacity how many bodies a leaf may hold before it is split
+     * @param maxDepth depth after which leaves are never split, however many bodies they hold
+     */
+    public FlatQuadtree(double width, double height, @Nonnegative int leafCapacity, @Nonnegative int maxDepth) {
+        if (leafCapacity < 1)
+            throw new IllegalArgumentException("leafCapacity must be at least 1");
+
+        this.width = width;
+        this.height = height;
+        this.leafCapacity = leafCapacity;
+        this.maxDepth = maxDepth;
+
+        this.child = new int[0];
+        this.first = new int[0];
+        this.count = new int[0];
+        this.cx = new double[0];
+        this.cy = new double[0];
+        this.halfW = new double[0];
+        this.halfH = new double[0];
+        this.mass = new double[0];
+        this.comX = new double[0];
+        this.comY = new double[0];
+        this.heaviest = new int[0];
+        this.qxx = new double[0];
+        this.qxy = new double[0];
+        this.qyy = new double[0];
+        this.order = new int[0];
+        this.newOrder = new int[0];
+        this.movers = new int[0];
+        this.moved = new boolean[0];
+        this.nextArrival = new int[0];
+        this.arrivals = new int[0];
+        this.bodyX = new double[0];
+        this.bodyY = new double[0];
+        this.bodyMass = new double[0];
+        this.leafOf = new int[0];
+
+        this.ensureNodeCapacity(1);
+    }
+
+    /**
+     * Rebuild the tree from scratch over the given positions, bodies outside the tree's region are left out
+     * @param x x coordinates of the bodies
+     * @param y y coordinates of the bodies
+     * @param n number of bodies
+     */
+    public void build(@Nonnull double[] x, @Nonnull double[] y, @Nonnegative int n) {
+        this.resetRoot(x, y, n);
+        this.subdivideRoot(x, y, null, 0);
+        this.liveNodeCount = this.nodeCount;
+        this.mortonBuild = false;
+    }
+
+    /**
+     * Rebuild the tree from scratch by sorting the bodies into Morton order and then laying the nodes out
+     * over the sorted bodies in one pass, bodies outside the tree's region are left out
+     * @param x x coordinates of the bodies
+     * @param y y coordinates of the bodies
+     * @param n number of bodies
+     */
+    public void buildMorton(@Nonnull double[] x, @Nonnull double[] y, @Nonnegative int n) {
+        var root = this.resetRoot(x, y, n);
+        var levels = Math.min(this.maxDepth, MortonSort.MAX_LEVELS);
+
+        this.morton.sort(this.order, this.count[root], x, y,
+                -this.width / 2.0, this.height / 2.0, this.width, this.height, levels, this.pool);
+        this.subdivideRoot(null, null, this.morton.getKeys(), levels);
+        this.liveNodeCount = this.nodeCount;
+        this.mortonBuild = true;
+    }
+
+    /**
+     * Throw away every node and start again with just a root holding the bodies inside the tree's region
+     * @return the root
+     */
+    private int resetRoot(@Nonnull double[] x, @Nonnull double[] y, int n) {
+        this.ensureBodyCapacity(n);
+
+        var halfW = this.width / 2.0;
+        var halfH = this.height / 2.0;
+
+        var inside = 0;
+        var outside = n;
+        for (var i = 0; i < n; i++) {
+            if (x[i] >= -halfW && x[i] <= halfW && y[i] >= -halfH && y[i] <= halfH) {
+                this.order[inside++] = i;
+            } else {
+                this.order[--outside] = i;
+            }
+        }
+
+        this.bodies = n;
+        this.nodeCount = 0;
+        return this.allocNode(0, 0, halfW, halfH, 0, inside);
+    }
+
+    /**
+     * Build everything under the root, in parallel if there are enough bodies to make it worth it
+     * @param keys if non null the bodies are in Morton order and these are their keys, otherwise the
+     *             bodies are partitioned using `x` and `y`
+     */
+    private void subdivideRoot(@Nullable double[] x, @Nullable double[] y, @Nullable long[] keys, int levels) {
+        var root = this.root();
+
+        if (this.count[root] < PARALLEL_CUTOFF || this.pool.getParallelism() <= 1) {
+            new SubdivideTask(root, 0, x, y, keys, levels).subdivide();
+            return;
+        }
+
+        this.ensureNodeCapacity(2 * this.count[root] / this.leafCapacity + 64);
+
+        while (true) {
+            this.sharedNodeCount.set(this.nodeCount);
+            this.outOfNodes = false;
+            this.building = true;
+
+            this.pool.invoke(new SubdivideTask(root, 0, x, y, keys, levels));
+
+            this.building = false;
+            this.nodeCount = this.sharedNodeCount.get();
+
+            if (!this.outOfNodes)
+                return;
+
+            // throw away what we have and try again with more room, the bodies are still all under the root
+            this.child[root] = NO_CHILD;
+            this.nodeCount = root + 1;
+            this.ensureNodeCapacity(this.child.length * 2);
+        }
+    }
+
+    private void rebuild(@Nonnull double[] x, @Nonnull double[] y, int n) {
+        if (this.mortonBuild) {
+            this.buildMorton(x, y, n);
+        } else {
+            this.build(x, y, n);
+        }
+    }
+
+    /**
+     * Bring the tree up to date with new positions, keeping it alive where possible.
+     *
+     * Bodies that are still inside their leaf stay where they are, the rest are re-inserted from the root,
+     * leaves that overflow are split and nodes that end up with few enough bodies become leaves again.
+     * Falls back to rebuilding the way the tree was last built if the set of bodies changed or too many of them moved.
+     * @param x x coordinates of the bodies
+     * @param y y coordinates of the bodies
+     * @param n number of bodies, must be the same bodies the tree was last built from
+     * @return true if the tree was updated in place, false if it had to be rebuilt
+     */
+    public boolean update(@Nonnull double[] x, @Nonnull double[] y, @Nonnegative int n) {
+        if (n != this.bodies) {
+            this.rebuild(x, y, n);
+            return false;
+        }
+
+        var root = this.root();
+        var moverCount = this.findMovers(root, x, y, 0);
+
+        for (var k = this.count[root]; k < n; k++) {
+            var body = this.order[k];
+
+            if (this.contains(root, x[body], y[body])) {
+                this.moved[body] = true;
+                this.movers[moverCount++] = body;
+            }
+        }
+
+        if (moverCount > this.maxMovedFraction * n || this.nodeCount > 2 * this.liveNodeCount) {
+            for (var m = 0; m < moverCount; m++) {
+                this.moved[this.movers[m]] = false;
+            }
+
+            this.rebuild(x, y, n);
+            return false;
+        }
+
+        // thread each mover onto the leaf it now belongs in, or onto the root's list if it left the tree
+        var leftTree = NO_CHILD;
+        for (var m = 0; m < moverCount; m++) {
+            var body = this.movers[m];
+
+            if (this.contains(root, x[body], y[body])) {
+                var leaf = this.findLeaf(x[body], y[body]);
+                this.nextArrival[body] = this.arrivals[leaf];
+                this.arrivals[leaf] = body;
+            } else {
+                this.nextArrival[body] = leftTree;
+                leftTree = body;
+            }
+        }
+
+        // lay the bodies out again in the new order, outside bodies go after the root's run like in build
+        var oldInside = this.count[root];
+        var outside = this.emit(root, 0);
+
+        for (var k = oldInside; k < n; k++) {
+            var body = this.order[k];
+            if (!this.moved[body])
+                this.newOrder[outside++] = body;
+        }
+        for (var body = leftTree; body != NO_CHILD; body = this.nextArrival[body]) {
+            this.newOrder[outside++] = body;
+        }
+
+        for (var m = 0; m < moverCount; m++) {
+            this.moved[this.movers[m]] = false;
+        }
+
+        var tmp = this.order;
+        this.order = this.newOrder;
+        this.newOrder = tmp;
+
+        this.liveNodeCount = 0;
+        this.restructure(root, x, y, 0);
+
+        return true;
+    }
+
+    /**
+     * Find the bodies under a node that are no longer inside their leaf
+     * @return the number of movers found so far
+     */
+    private int findMovers(int node, @Nonnull double[] x, @Nonnull double[] y, int moverCount) {
+        if (!this.isLeaf(node)) {
+            for (var c = this.child[node]; c < this.child[node] + 4; c++) {
+                moverCount = this.findMovers(c, x, y, moverCount);
+            }
+            return moverCount;
+        }
+
+        this.arrivals[node] = NO_CHILD;
+
+        for (var k = this.first[node]; k < this.first[node] + this.count[node]; k++) {
+            var body = this.order[k];
+
+            if (!this.contains(node, x[body], y[body])) {
+                this.moved[body] = true;
+                this.movers[moverCount++] = body;
+            }
+        }
+
+        return moverCount;
+    }
+
+    /**
+     * @return the leaf that a position inside the tree's region falls into
+     */
+    private int findLeaf(double x, double y) {
+        var node = this.root();
+
+        while (!this.isLeaf(node)) {
+            node = this.child[node] + quadrant(this.cx[node], this.cy[node], x, y);
+        }
+
+        return node;
+    }
+
+    /**
+     * Write the bodies under a node into the new order, recomputing the runs of every node on the way
+     * @param pos where in the new order the node's bodies start
+     * @return where in the new order the next node's bodies start
+     */
+    private int emit(int node, int pos) {
+        var start = pos;
+
+        if (this.isLeaf(node)) {
+            for (var k = this.first[node]; k < this.first[node] + this.count[node]; k++) {
+                var body = this.order[k];
+                if (!this.moved[body])
+                    this.newOrder[pos++] = body;
+            }
+
+            for (var body = this.arrivals[node]; body != NO_CHILD; body = this.nextArrival[body]) {
+                this.newOrder[pos++] = body;
+            }
+        } else {
+            for (var c = this.child[node]; c < this.child[node] + 4; c++) {
+                pos = this.emit(c, pos);
+            }
+        }
+
+        this.first[node] = start;
+        this.count[node] = pos - start;
+
+        return pos;
+    }
+
+    /**
+     * Split leaves that overflowed and merge nodes that no longer need splitting
+     */
+    private void restructure(int node, @Nonnull double[] x, @Nonnull double[] y, int depth) {
+        this.liveNodeCount++;
+
+        if (this.isLeaf(node)) {
+            var before = this.nodeCount;
+            new SubdivideTask(node, depth, x, y, null, 0).subdivide();
+            this.liveNodeCount += this.nodeCount - before;
+            return;
+        }
+
+        if (this.count[node] <= this.leafCapacity) {
+            // the children are left behind in the arrays until the next rebuild
+            this.child[node] = NO_CHILD;
+            return;
+        }
+
+        for (var c = this.child[node]; c < this.child[node] + 4; c++) {
+            this.restructure(c, x, y, depth + 1);
+        }
+    }
+
+    private boolean contains(int node, double x, double y) {
+        return x >= this.cx[node] - this.halfW[node] && x <= this.cx[node] + this.halfW[node]
+                && y >= this.cy[node] - this.halfH[node] && y <= this.cy[node] + this.halfH[node];
+    }
+
+    /**
+     * @return which child of a node centred on (cx, cy) a position belongs in, the same as the build's partitioning
+     */
+    private static int quadrant(double cx, double cy, double x, double y) {
+        var row = y >= cy ? 0 : 2;
+        var column = x <= cx ? 0 : 1;
+        return row + column;
+    }
+
+    /**
+     * Compute the mass and centre of mass of every node, this is the upward pass of the tree.
+     *
+     * NOTE: Must be passed the same positions the tree was built from
+     * @param x x coordinates of the bodies
+     * @param y y coordinates of the bodies
+     * @param m masses of the bodies
+     */
+    public void computeMonopoles(@Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m) {
+        if (this.quadrupoles && this.qxx.length < this.child.length) {
+            this.qxx = new double[this.child.length];
+            this.qxy = new double[this.child.length];
+            this.qyy = new double[this.child.length];
+        }
+
+        var task = new MonopoleTask(this.root(), x, y, m);
+
+        if (this.count[this.root()] < PARALLEL_CUTOFF || this.pool.getParallelism() <= 1) {
+            task.computeSubtree(this.root());
+        } else {
+            this.pool.invoke(task);
+        }
+
+        for (var k = this.count[this.root()]; k < this.bodies; k++) {
+            this.leafOf[this.order[k]] = NO_CHILD;
+        }
+    }
+
+    /**
+     * Compute the mass and centre of mass of one node from its bodies or its children
+     */
+    private void computeMonopole(int node, @Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m) {
+        var totalMass = 0.0;
+        var sumX = 0.0;
+        var sumY = 0.0;
+        var heaviest = NO_CHILD;
+        var heaviestMass = Double.NEGATIVE_INFINITY;
+
+        if (this.isLeaf(node)) {
+            for (var k = this.first[node]; k < this.first[node] + this.count[node]; k++) {
+                var body = this.order[k];
+                this.leafOf[body] = node;
+                this.bodyX[k] = x[body];
+                this.bodyY[k] = y[body];
+                this.bodyMass[k] = m[body];
+
+                totalMass += this.bodyMass[k];
+                sumX += this.bodyX[k] * this.bodyMass[k];
+                sumY += this.bodyY[k] * this.bodyMass[k];
+
+                if (this.bodyMass[k] > heaviestMass) {
+                    heaviest = body;
+                    heaviestMass = this.bodyMass[k];
+                }
+            }
+        } else {
+            for (var c = this.child[node]; c < this.child[node] + 4; c++) {
+                totalMass += this.mass[c];
+                sumX += this.comX[c] * this.mass[c];
+                sumY += this.comY[c] * this.mass[c];
+
+                if (this.heaviest[c] != NO_CHILD && m[this.heaviest[c]] > heaviestMass) {
+                    heaviest = this.heaviest[c];
+                    heaviestMass = m[heaviest];
+                }
+            }
+        }
+
+        this.mass[node] = totalMass;
+        this.heaviest[node] = heaviest;
+
+        if (totalMass == 0.0) {
+            // special case when there's no mass, nothing will be attracted to it anyway
+            this.comX[node] = this.cx[node];
+            this.comY[node] = this.cy[node];
+        } else {
+            this.comX[node] = sumX / totalMass;
+            this.comY[node] = sumY / totalMass;
+        }
+
+        if (this.quadrupoles) {
+            this.computeQuadrupole(node);
+        }
+    }
+
+    /**
+     * Compute the second moments of the mass of one node about its centre of mass,
+     * children are moved onto the parent's centre of mass with the parallel axis theorem
+     */
+    private void computeQuadrupole(int node) {
+        var xx = 0.0;
+        var xy = 0.0;
+        var yy = 0.0;
+
+        if (this.isLeaf(node)) {
+            for (var k = this.first[node]; k < this.first[node] + this.count[node]; k++) {
+                var dx = this.bodyX[k] - this.comX[node];
+                var dy = this.bodyY[k] - this.comY[node];
+                xx += this.bodyMass[k] * dx * dx;
+                xy += this.bodyMass[k] * dx * dy;
+                yy += this.bodyMass[k] * dy * dy;
+            }
+        } else {
+            for (var c = this.child[node]; c < this.child[node] + 4; c++) {
+                var dx = this.comX[c] - this.comX[node];
+                var dy = this.comY[c] - this.comY[node];
+                xx += this.qxx[c] + this.mass[c] * dx * dx;
+                xy += this.qxy[c] + this.mass[c] * dx * dy;
+                yy += this.qyy[c] + this.mass[c] * dy * dy;
+            }
+        }
+
+        this.qxx[node] = xx;
+        this.qxy[node] = xy;
+        this.qyy[node] = yy;
+    }
+
+    /**
+     * Runs the upward pass under a node, forking a task per quadrant while there are enough bodies
+     */
+    private class MonopoleTask extends RecursiveAction {
+        private final int node;
+        @Nonnull private final double[] x, y, m;
+
+        MonopoleTask(int node, @Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m) {
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.m = m;
+        }
+
+        /**
+         * run the upward pass under a node on this thread
+         */
+        void computeSubtree(int node) {
+            var tree = FlatQuadtree.this;
+
+            if (!tree.isLeaf(node)) {
+                for (var c = tree.child[node]; c < tree.child[node] + 4; c++) {
+                    this.computeSubtree(c);
+                }
+            }
+
+            tree.computeMonopole(node, this.x, this.y, this.m);
+        }
+
+        @Override
+        protected void compute() {
+            var tree = FlatQuadtree.this;
+
+            if (tree.count[this.node] < PARALLEL_CUTOFF || tree.isLeaf(this.node)) {
+                this.computeSubtree(this.node);
+                return;
+            }
+
+            var c = tree.child[this.node];
+            invokeAll(
+                    new MonopoleTask(c, this.x, this.y, this.m),
+                    new MonopoleTask(c + 1, this.x, this.y, this.m),
+                    new MonopoleTask(c + 2, this.x, this.y, this.m),
+                    new MonopoleTask(c + 3, this.x, this.y, this.m)
+            );
+
+            tree.computeMonopole(this.node, this.x, this.y, this.m);
+        }
+    }
+
+    /**
+     * Split a node into quadrants by partitioning its bodies
+     * @return the NW child, or {@link #NO_CHILD} if the node should stay a leaf
+     */
+    private int split(int node, @Nonnull double[] x, @Nonnull double[] y, int depth) {
+        var lo = this.first[node];
+        var hi = lo + this.count[node];
+
+        if (hi - lo <= this.leafCapacity || depth >= this.maxDepth)
+            return NO_CHILD;
+
+        var midX = this.cx[node];
+        var midY = this.cy[node];
+
+        // north first, then west first within each half, which gives NW, NE, SW, SE
+        var midNS = this.partition(lo, hi, y, midY, true);
+        var midNW = this.partition(lo, midNS, x, midX, false);
+        var midSW = this.partition(midNS, hi, x, midX, false);
+
+        return this.allocChildren(node, midNW, midNS, midSW);
+    }
+
+    /**
+     * Split a node into quadrants.
+     *
+     * NOTE: Assumes that the node's bodies are in Morton order
+     * @param keys the Morton keys of the bodies, lined up with the body order
+     * @param levels the number of levels the keys resolve
+     * @return the NW child, or {@link #NO_CHILD} if the node should stay a leaf
+     */
+    private int splitSorted(int node, @Nonnull long[] keys, int levels, int depth) {
+        var lo = this.first[node];
+        var hi = lo + this.count[node];
+
+        if (hi - lo <= this.leafCapacity || depth >= levels)
+            return NO_CHILD;
+
+        // every key in the node shares the digits above this level, so the digit for this level is sorted too
+        var shift = 2 * (levels - 1 - depth);
+        var startNE = firstWithDigit(keys, lo, hi, shift, 1);
+        var startSW = firstWithDigit(keys, startNE, hi, shift, 2);
+        var startSE = firstWithDigit(keys, startSW, hi, shift, 3);
+
+        return this.allocChildren(node, startNE, startSW, startSE);
+    }
+
+    /**
+     * Builds the subtree under a node, forking a task per quadrant while there are enough bodies
+     */
+    private class SubdivideTask extends RecursiveAction {
+        private final int node;
+        private final int depth;
+        @Nullable private final double[] x, y;
+        @Nullable private final long[] keys;
+        private final int levels;
+
+        SubdivideTask(int node, int depth, @Nullable double[] x, @Nullable double[] y, @Nullable long[] keys, int levels) {
+            this.node = node;
+            this.depth = depth;
+            this.x = x;
+            this.y = y;
+            this.keys = keys;
+            this.levels = levels;
+        }
+
+        private int split(int node, int depth) {
+            if (this.keys != null)
+                return FlatQuadtree.this.splitSorted(node, this.keys, this.levels, depth);
+            return FlatQuadtree.this.split(node, this.x, this.y, depth);
+        }
+
+        /**
+         * build the subtree on this thread
+         */
+        void subdivide() {
+            this.subdivide(this.node, this.depth);
+        }
+
+        private void subdivide(int node, int depth) {
+            var nw = this.split(node, depth);
+            if (nw == NO_CHILD)
+                return;
+
+            for (var c = nw; c < nw + 4; c++) {
+                this.subdivide(c, depth + 1);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (FlatQuadtree.this.outOfNodes)
+                return;
+
+            if (FlatQuadtree.this.count[this.node] < PARALLEL_CUTOFF) {
+                this.subdivide();
+                return;
+            }
+
+            var nw = this.split(this.node, this.depth);
+            if (nw == NO_CHILD)
+                return;
+
+            invokeAll(
+                    new SubdivideTask(nw, this.depth + 1, this.x, this.y, this.keys, this.levels),
+                    new SubdivideTask(nw + 1, this.depth + 1, this.x, this.y, this.keys, this.levels),
+                    new SubdivideTask(nw + 2, this.depth + 1, this.x, this.y, this.keys, this.levels),
+                    new SubdivideTask(nw + 3, this.depth + 1, this.x, this.y, this.keys, this.levels)
+            );
+        }
+    }
+
+    /**
+     * @return the first position in keys[lo..hi) whose digit at `shift` is at least `digit`
+     */
+    private static int firstWithDigit(@Nonnull long[] keys, int lo, int hi, int shift, int digit) {
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+
+            if (((keys[mid] >>> shift) & 3) < digit) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Give a node its four children, the node's bodies must already be laid out NW, NE, SW, SE
+     * @param startNE position in the body order of the first body in the NE child
+     * @param startSW position in the body order of the first body in the SW child
+     * @param startSE position in the body order of the first body in the SE child
+     * @return the NW child, or {@link #NO_CHILD} if a parallel build ran out of nodes
+     */
+    private int allocChildren(int node, int startNE, int startSW, int startSE) {
+        var nw = this.reserveNodes(4);
+        if (nw == NO_CHILD)
+            return NO_CHILD;
+
+        var lo = this.first[node];
+        var hi = lo + this.count[node];
+        var midX = this.cx[node];
+        var midY = this.cy[node];
+        var qw = this.halfW[node] / 2.0;
+        var qh = this.halfH[node] / 2.0;
+
+        this.initNode(nw, midX - qw, midY + qh, qw, qh, lo, startNE - lo);
+        this.initNode(nw + 1, midX + qw, midY + qh, qw, qh, startNE, startSW - startNE);
+        this.initNode(nw + 2, midX - qw, midY - qh, qw, qh, startSW, startSE - startSW);
+        this.initNode(nw + 3, midX + qw, midY - qh, qw, qh, startSE, hi - startSE);
+
+        this.child[node] = nw;
+
+        return nw;
+    }
+
+    /**
+     * Partition order[lo..hi) in place
+     * @param coord the coordinate to partition on
+     * @param mid the dividing line
+     * @param upper if true bodies with coord >= mid go first, otherwise bodies with coord <= mid go first
+     * @return the index of the first body of the second part
+     */
+    private int partition(int lo, int hi, @Nonnull double[] coord, double mid, boolean upper) {
+        var order = this.order;
+        var i = lo;
+        var j = hi - 1;
+
+        while (true) {
+            while (i <= j && inFirstPart(coord[order[i]], mid, upper))
+                i++;
+            while (i <= j && !inFirstPart(coord[order[j]], mid, upper))
+                j--;
+
+            if (i >= j)
+                return i;
+
+            var tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    private static boolean inFirstPart(double coord, double mid, boolean upper) {
+        // points on the dividing line go north and west, the same as Quadtree.getDirection
+        return upper ? coord >= mid : coord <= mid;
+    }
+
+    private void ensureBodyCapacity(int n) {
+        if (this.order.length >= n)
+            return;
+
+        this.order = new int[n];
+        this.newOrder = new int[n];
+        this.movers = new int[n];
+        this.moved = new boolean[n];
+        this.nextArrival = new int[n];
+        this.bodyX = new double[n];
+        this.bodyY = new double[n];
+        this.bodyMass = new double[n];
+        this.leafOf = new int[n];
+    }
+
+    private int allocNode(double cx, double cy, double halfW, double halfH, int first, int count) {
+        var node = this.reserveNodes(1);
+        this.initNode(node, cx, cy, halfW, halfH, first, count);
+        return node;
+    }
+
+    /**
+     * Claim some consecutive nodes
+     * @return the first of the nodes, or {@link #NO_CHILD} if a parallel build ran out of nodes
+     */
+    private int reserveNodes(int k) {
+        if (!this.building) {
+            this.ensureNodeCapacity(this.nodeCount + k);
+
+            var node = this.nodeCount;
+            this.nodeCount += k;
+            return node;
+        }
+
+        // the arrays can't be grown while other threads are writing to them
+        var node = this.sharedNodeCount.getAndAdd(k);
+        if (node + k > this.child.length) {
+            this.outOfNodes = true;
+            return NO_CHILD;
+        }
+
+        return node;
+    }
+
+    private void initNode(int node, double cx, double cy, double halfW, double halfH, int first, int count) {
+        this.child[node] = NO_CHILD;
+        this.first[node] = first;
+        this.count[node] = count;
+        this.cx[node] = cx;
+        this.cy[node] = cy;
+        this.halfW[node] = halfW;
+        this.halfH[node] = halfH;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (capacity <= this.child.length)
+            return;
+
+        var newCapacity = Math.max(capacity, Math.max(64, this.child.length * 2));
+
+        this.child = Arrays.copyOf(this.child, newCapacity);
+        this.first = Arrays.copyOf(this.first, newCapacity);
+        this.count = Arrays.copyOf(this.count, newCapacity);
+        this.cx = Arrays.copyOf(this.cx, newCapacity);
+        this.cy = Arrays.copyOf(this.cy, newCapacity);
+        this.halfW = Arrays.copyOf(this.halfW, newCapacity);
+        this.halfH = Arrays.copyOf(this.halfH, newCapacity);
+        this.mass = Arrays.copyOf(this.mass, newCapacity);
+        this.comX = Arrays.copyOf(this.comX, newCapacity);
+        this.comY = Arrays.copyOf(this.comY, newCapacity);
+        this.heaviest = Arrays.copyOf(this.heaviest, newCapacity);
+        this.arrivals = Arrays.copyOf(this.arrivals, newCapacity);
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    public boolean isLeaf(int node) {
+        return this.child[node] == NO_CHILD;
+    }
+
+    /**
+     * @return index of the NW child of the node, the others follow it, or {@link #NO_CHILD} for a leaf
+     */
+    public int getChild(int node) {
+        return this.child[node];
+    }
+
+    /**
+     * @return position in the body order of the first body in the node
+     */
+    public int getFirst(int node) {
+        return this.first[node];
+    }
+
+    public int getCount(int node) {
+        return this.count[node];
+    }
+
+    public double getCentreX(int node) {
+        return this.cx[node];
+    }
+
+    public double getCentreY(int node) {
+        return this.cy[node];
+    }
+
+    public double getHalfWidth(int node) {
+        return this.halfW[node];
+    }
+
+    public double getHalfHeight(int node) {
+        return this.halfH[node];
+    }
+
+    /**
+     * @return total mass of the bodies in the node
+     */
+    public double getMass(int node) {
+        return this.mass[node];
+    }
+
+    /**
+     * @return index of the heaviest body in the node when the monopoles were last computed,
+     *         or {@link #NO_CHILD} if it's empty
+     */
+    public int getHeaviest(int node) {
+        return this.heaviest[node];
+    }
+
+    public double getCentreOfMassX(int node) {
+        return this.comX[node];
+    }
+
+    public double getCentreOfMassY(int node) {
+        return this.comY[node];
+    }
+
+    public boolean hasQuadrupoles() {
+        return this.quadrupoles;
+    }
+
+    /**
+     * @return sum of m * dx * dx over the bodies in the node, dx being measured from the centre of mass
+     */
+    public double getQuadrupoleXX(int node) {
+        return this.qxx[node];
+    }
+
+    /**
+     * @return sum of m * dx * dy over the bodies in the node
+     */
+    public double getQuadrupoleXY(int node) {
+        return this.qxy[node];
+    }
+
+    /**
+     * @return sum of m * dy * dy over the bodies in the node
+     */
+    public double getQuadrupoleYY(int node) {
+        return this.qyy[node];
+    }
+
+    /**
+     * @param k position in the body order
+     * @return the index of the body at that position
+     */
+    public int getBody(int k) {
+        return this.order[k];
+    }
+
+    /**
+     * @param body index of a body
+     * @return the leaf the body was in when the monopoles were last computed, or {@link #NO_CHILD} if it's outside the tree
+     */
+    public int getLeaf(int body) {
+        return this.leafOf[body];
+    }
+
+    public double getBodyX(int k) {
+        return this.bodyX[k];
+    }
+
+    public double getBodyY(int k) {
+        return this.bodyY[k];
+    }
+
+    public double getBodyMass(int k) {
+        return this.bodyMass[k];
+    }
+
+    /**
+     * @return the region covered by a node
+     */
+    @Nonnull
+    public Bounded getRegion(int node) {
+        return new Rectangle(this.cx[node], this.cy[node], this.halfW[node] * 2.0, this.halfH[node] * 2.0);
+    }
+
+    /**
+     * @return the regions covered by every node in the tree
+     */
+    @Nonnull
+    public ArrayList<Bounded> getRegions() {
+        var regions = new ArrayList<Bounded>(this.liveNodeCount);
+        this.getRegions(this.root(), regions);
+        return regions;
+    }
+
+    private void getRegions(int node, @Nonnull ArrayList<Bounded> collector) {
+        collector.add(this.getRegion(node));
+
+        if (this.isLeaf(node))
+            return;
+
+        for (var c = this.child[node]; c < this.child[node] + 4; c++) {
+            this.getRegions(c, collector);
+        }
+    }
+
+    /**
+     * @param pool the pool to run the parallel parts of building the tree on
+     */
+    public void setPool(@Nonnull ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param maxMovedFraction fraction of the bodies that may leave their leaf before {@link #update} rebuilds instead
+     */
+    public void setMaxMovedFraction(double maxMovedFraction) {
+        this.maxMovedFraction = maxMovedFraction;
+    }
+
+    /**
+     * @param quadrupoles if true {@link #computeMonopoles} also computes the quadrupole moments of every node
+     */
+    public void setQuadrupoles(boolean quadrupoles) {
+        this.quadrupoles = quadrupoles;
+    }
+}
@@ -0,0 +1,166 @@
+package somephysicsthing.solarsystem.quadtree;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Sorts bodies into Morton (Z-order) with a parallel LSD radix sort.
+ *
+ * The key of a body interleaves its quantised row and column bits, most significant level first,
+ * so the two bits for each level are the index of the quadrant it falls in (NW, NE, SW, SE).
+ * All of the buffers are kept between sorts.
+ */
+class MortonSort {
+    /**
+     * keys are 64 bits wide, which is enough for this many levels of two bits each
+     */
+    static final int MAX_LEVELS = 31;
+
+    private static final int RADIX_BITS = 8;
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    private static final int MIN_CHUNK = 1 << 14;
+
+    @Nonnull private long[] keys = new long[0];
+    @Nonnull private long[] keysTmp = new long[0];
+    @Nonnull private int[] index = new int[0];
+    @Nonnull private int[] indexTmp = new int[0];
+    @Nonnull private int[][] histograms = new int[0][];
+
+    /**
+     * Sort bodies by their Morton key
+     * @param order the bodies to sort, sorted in place
+     * @param n how many of `order` to sort
+     * @param left x coordinate of the left edge of the region
+     * @param top y coordinate of the top edge of the region
+     * @param levels how many levels of the tree the keys should resolve
+     */
+    void sort(@Nonnull int[] order, @Nonnegative int n, @Nonnull double[] x, @Nonnull double[] y,
+              double left, double top, double width, double height, int levels, @Nonnull ForkJoinPool pool) {
+        this.ensureCapacity(n);
+
+        var chunks = Math.max(1, Math.min(pool.getParallelism(), n / MIN_CHUNK));
+        var chunkSize = (n + chunks - 1) / chunks;
+        var cells = (double) (1L << levels);
+
+        if (this.histograms.length < chunks) {
+            this.histograms = new int[chunks][BUCKETS];
+        }
+
+        this.computeKeys(order, n, x, y, left, top, width, height, cells, pool, chunks, chunkSize);
+
+        for (var shift = 0; shift < 2 * levels; shift += RADIX_BITS) {
+            var keys = this.keys;
+            var index = this.index;
+            var keysTmp = this.keysTmp;
+            var indexTmp = this.indexTmp;
+            var histograms = this.histograms;
+            var digitShift = shift;
+
+            forEachChunk(pool, chunks, (int c) -> {
+                var histogram = histograms[c];
+                Arrays.fill(histogram, 0);
+
+                for (var i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+                    histogram[(int) (keys[i] >>> digitShift) & (BUCKETS - 1)]++;
+                }
+            });
+
+            // turn the counts into offsets, digit first then chunk so the sort stays stable
+            var total = 0;
+            for (var digit = 0; digit < BUCKETS; digit++) {
+                for (var c = 0; c < chunks; c++) {
+                    var count = histograms[c][digit];
+                    histograms[c][digit] = total;
+                    total += count;
+                }
+            }
+
+            forEachChunk(pool, chunks, (int c) -> {
+                var offsets = histograms[c];
+
+                for (var i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+                    var to = offsets[(int) (keys[i] >>> digitShift) & (BUCKETS - 1)]++;
+                    keysTmp[to] = keys[i];
+                    indexTmp[to] = index[i];
+                }
+            });
+
+            this.keys = keysTmp;
+            this.keysTmp = keys;
+            this.index = indexTmp;
+            this.indexTmp = index;
+        }
+
+        System.arraycopy(this.index, 0, order, 0, n);
+    }
+
+    private void computeKeys(@Nonnull int[] order, int n, @Nonnull double[] x, @Nonnull double[] y,
+                             double left, double top, double width, double height, double cells,
+                             @Nonnull ForkJoinPool pool, int chunks, int chunkSize) {
+        var keys = this.keys;
+        var index = this.index;
+
+        forEachChunk(pool, chunks, (int c) -> {
+            for (var i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++) {
+                var body = order[i];
+                var column = quantise((x[body] - left) / width, cells);
+                var row = quantise((top - y[body]) / height, cells);
+
+                keys[i] = (spread(row) << 1) | spread(column);
+                index[i] = body;
+            }
+        });
+    }
+
+    /**
+     * @return the sorted keys, lined up with the order passed to the last sort
+     */
+    @Nonnull long[] getKeys() {
+        return this.keys;
+    }
+
+    private static void forEachChunk(@Nonnull ForkJoinPool pool, int chunks, @Nonnull IntConsumer body) {
+        if (chunks == 1) {
+            body.accept(0);
+            return;
+        }
+
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(body)).join();
+    }
+
+    /**
+     * @param f position across the region, from 0 to 1
+     * @param cells the number of cells across the region
+     */
+    private static long quantise(double f, double cells) {
+        var q = (long) (f * cells);
+        return Math.max(0, Math.min((long) cells - 1, q));
+    }
+
+    /**
+     * spread the low 32 bits of `v` out so there's a zero between each of them
+     */
+    private static long spread(long v) {
+        v &= 0xffffffffL;
+        v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+        v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    private void ensureCapacity(int n) {
+        if (this.keys.length >= n)
+            return;
+
+        this.keys = new long[n];
+        this.keysTmp = new long[n];
+        this.index = new int[n];
+        this.indexTmp = new int[n];
+    }
+}
@@ -5,24 +5,50 @@ import somephysicsthing.solarsystem.bounded.Bounded;
 import somephysicsthing.solarsystem.bounded.Rectangle;
 import somephysicsthing.solarsystem.propertytraits.HasPosition;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Function;
 
 import static somephysicsthing.solarsystem.quadtree.Direction.*;
 
 /**
  * Implements a quadtree data structure for storing 2-d points
+ *
+ * Leaves hold up to `leafCapacity` points before they are split, and leaves at `maxDepth` are never split
+ * so points stacked on top of each other can't make the tree recurse forever.
  */
 public class Quadtree<T extends HasPosition> {
+    private static final int PARALLEL_FOLD_DEPTH = 4;
+    private static final int DEFAULT_LEAF_CAPACITY = 1;
+    private static final int DEFAULT_MAX_DEPTH = 24;
+
     @Nonnull private Quadrant<T> inner;
     @Nonnull private Bounded bounds;
+    private final int leafCapacity;
+    private final int maxDepth;
 
     public Quadtree(double width, double height) {
+        this(width, height, DEFAULT_LEAF_CAPACITY, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param width width of the tree
+     * @param height height of the tree
+     * @param leafCapacity how many points a leaf may hold before it is split
+     * @param maxDepth depth after which leaves are never split, however many points they hold
+     */
+    public Quadtree(double width, double height, @Nonnegative int leafCapacity, @Nonnegative int maxDepth) {
+        if (leafCapacity < 1)
+            throw new IllegalArgumentException("leafCapacity must be at least 1");
+
         this.bounds = new Rectangle(0, 0, width, height);
-        this.inner = new LeafNode(this.bounds);
+        this.leafCapacity = leafCapacity;
+        this.maxDepth = maxDepth;
+        this.inner = new LeafNode(this.bounds, 0);
     }
 
     public boolean insert(@Nonnull T p) {
@@ -38,6 +64,21 @@ public class Quadtree<T extends HasPosition> {
         return this.inner.applyFold(folder, path);
     }
 
+    /**
+     * Fold over the tree, folding the quadrants of the top few levels in parallel on `pool`.
+     *
+     * Falls back to {@link #applyFold} if the folder isn't thread safe
+     * @param folder the folder to apply
+     * @param pool the pool to fold on
+     * @return the result of the fold
+     */
+    public <R> R applyFoldParallel(@Nonnull QuadtreeFolder<T, R> folder, @Nonnull ForkJoinPool pool) {
+        if (!folder.isThreadSafe())
+            return this.applyFold(folder);
+
+        return pool.invoke(new FoldTask<>(this.inner, folder, List.of(), 0));
+    }
+
     /**
      * Get a map of paths to regions in the quad tree
      * @return a map of paths to regions in the quad tree
@@ -66,6 +107,50 @@ public class Quadtree<T extends HasPosition> {
         return set;
     }
 
+    /**
+     * Folds a quadrant, forking a task per child quadrant until the cutoff depth
+     */
+    private class FoldTask<R> extends RecursiveTask<R> {
+        @Nonnull private final Quadrant<T> quadrant;
+        @Nonnull private final QuadtreeFolder<T, R> folder;
+        @Nonnull private final List<Direction> path;
+        private final int depth;
+
+        FoldTask(@Nonnull Quadrant<T> quadrant, @Nonnull QuadtreeFolder<T, R> folder, @Nonnull List<Direction> path, int depth) {
+            this.quadrant = quadrant;
+            this.folder = folder;
+            this.path = path;
+            this.depth = depth;
+        }
+
+        @Nonnull
+        private FoldTask<R> child(@Nonnull Quadrant<T> quadrant, @Nonnull Direction direction) {
+            var path = new ArrayList<>(this.path);
+            path.add(direction);
+            return new FoldTask<>(quadrant, this.folder, List.copyOf(path), this.depth + 1);
+        }
+
+        @Override
+        protected R compute() {
+            if (this.depth >= PARALLEL_FOLD_DEPTH || !(this.quadrant instanceof Quadtree.InternalNode)) {
+                var pathSoFar = new Stack<Direction>();
+                pathSoFar.addAll(this.path);
+                return this.quadrant.applyFold(this.folder, pathSoFar);
+            }
+
+            var node = (InternalNode) this.quadrant;
+
+            var nw = this.child(node.nw, Direction.NW);
+            var ne = this.child(node.ne, Direction.NE);
+            var sw = this.child(node.sw, Direction.SW);
+            var se = this.child(node.se, Direction.SE);
+
+            invokeAll(nw, ne, sw, se);
+
+            return this.folder.visitQuad(this.path, nw.join(), ne.join(), sw.join(), se.join());
+        }
+    }
+
     private interface Quadrant<T> {
         @Nonnull Bounded getBounded();
         @Nonnull Quadrant<T> insert(T p);
@@ -101,18 +186,20 @@ public class Quadtree<T extends HasPosition> {
 
     private class InternalNode implements Quadrant<T> {
         @Nonnull private final Bounded bounds;
+        private final int depth;
 
         @Nonnull private Quadrant<T> nw;
         @Nonnull private Quadrant<T> ne;
         @Nonnull private Quadrant<T> sw;
         @Nonnull private Quadrant<T> se;
 
-        InternalNode(@Nonnull Bounded bounds) {
+        InternalNode(@Nonnull Bounded bounds, int depth) {
             this.bounds = bounds;
-            this.nw = new LeafNode(bounds.westRect().northRect());
-            this.ne = new LeafNode(bounds.eastRect().northRect());
-            this.sw = new LeafNode(bounds.westRect().southRect());
-            this.se = new LeafNode(bounds.eastRect().southRect());
+            this.depth = depth;
+            this.nw = new LeafNode(bounds.westRect().northRect(), depth + 1);
+            this.ne = new LeafNode(bounds.eastRect().northRect(), depth + 1);
+            this.sw = new LeafNode(bounds.westRect().southRect(), depth + 1);
+            this.se = new LeafNode(bounds.eastRect().southRect(), depth + 1);
         }
 
         @Override
@@ -205,17 +292,14 @@ public class Quadtree<T extends HasPosition> {
 
     private class LeafNode implements Quadrant<T> {
         @Nonnull private final Bounded bounds;
+        private final int depth;
 
-        @Nullable T elem;
-
-        LeafNode(@Nonnull Bounded bounds, @Nonnull T elem) {
-            this.bounds = bounds;
-            this.elem = elem;
-        }
+        @Nonnull private final ArrayList<T> elems;
 
-        LeafNode(@Nonnull Bounded bounds) {
+        LeafNode(@Nonnull Bounded bounds, int depth) {
             this.bounds = bounds;
-            this.elem = null;
+            this.depth = depth;
+            this.elems = new ArrayList<>(Quadtree.this.leafCapacity);
         }
 
         @Override
@@ -225,15 +309,21 @@ public class Quadtree<T extends HasPosition> {
         }
 
         @Nonnull private Quadrant<T> split() {
-            Quadrant<T> new_quad = new InternalNode(this.bounds);
-            return new_quad.insert(this.elem);
+            Quadrant<T> new_quad = new InternalNode(this.bounds, this.depth);
+
+            for (var elem : this.elems) {
+                new_quad.insert(elem);
+            }
+
+            return new_quad;
         }
 
         @Nonnull
         @Override
         public Quadrant<T> insert(T p) {
-            if (this.elem == null) {
-                this.elem = p;
+            // leaves at the bottom just keep growing
+            if (this.elems.size() < Quadtree.this.leafCapacity || this.depth >= Quadtree.this.maxDepth) {
+                this.elems.add(p);
                 return this;
             }
 
@@ -243,9 +333,9 @@ public class Quadtree<T extends HasPosition> {
         }
 
         public <R> R applyFold(@Nonnull QuadtreeFolder<T, R> folder, @Nonnull Stack<Direction> pathSoFar) {
-            if (this.elem == null)
+            if (this.elems.isEmpty())
                 return folder.visitEmpty(List.copyOf(pathSoFar));
-            return folder.visitLeaf(List.copyOf(pathSoFar), this.elem);
+            return folder.visitLeaf(List.copyOf(pathSoFar), Collections.unmodifiableList(this.elems));
         }
 
         @Override
@@ -255,7 +345,7 @@ public class Quadtree<T extends HasPosition> {
 
         @Override
         public void getPathsFitting(Function<Bounded, Boolean> pred, @Nonnull HashSet<List<Direction>> collector, @Nonnull Stack<Direction> pathSoFar) {
-            if (this.elem == null)
+            if (this.elems.isEmpty())
                 return;
 
             collector.add(List.copyOf(pathSoFar));
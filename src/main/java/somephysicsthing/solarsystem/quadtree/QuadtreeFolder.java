@@ -11,8 +11,20 @@ import java.util.List;
 public interface QuadtreeFolder<T, R> {
     @Nonnull
     R visitEmpty(@Nonnull List<Direction> path);
+    /**
+     * @param elems the points in the leaf, never empty
+     */
     @Nonnull
-    R visitLeaf(@Nonnull List<Direction> path, @Nonnull T elem);
+    R visitLeaf(@Nonnull List<Direction> path, @Nonnull List<T> elems);
     @Nonnull
     R visitQuad(@Nonnull List<Direction> path, R nw, R ne, R sw, R se);
+
+    /**
+     * Folders that can have their visit methods called from several threads at once should return true,
+     * {@link Quadtree#applyFoldParallel} only folds in parallel for these
+     * @return if the folder is safe to use from several threads
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
 }
@@ -0,0 +1,48 @@
+package somephysicsthing.solarsystem;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import javax.annotation.Nonnull;
+
+/**
+ * {@link BlockKernel} on the vector API, as many sources at a time as the widest vector the CPU has.
+ *
+ * Only built on JDK 16 and up, and only loaded when the JVM is run with --add-modules jdk.incubator.vector
+ */
+class VectorKernel extends BlockKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    void accelerate(double px, double py, @Nonnull double[] x, @Nonnull double[] y, @Nonnull double[] m, int from, int to) {
+        var vpx = DoubleVector.broadcast(SPECIES, px);
+        var vpy = DoubleVector.broadcast(SPECIES, py);
+        var one = DoubleVector.broadcast(SPECIES, 1.0);
+        var sumX = DoubleVector.zero(SPECIES);
+        var sumY = DoubleVector.zero(SPECIES);
+
+        var i = from;
+        var bound = from + SPECIES.loopBound(to - from);
+
+        for (; i < bound; i += SPECIES.length()) {
+            var dx = DoubleVector.fromArray(SPECIES, x, i).sub(vpx);
+            var dy = DoubleVector.fromArray(SPECIES, y, i).sub(vpy);
+            var invDist = one.div(dx.mul(dx).add(dy.mul(dy)).sqrt());
+
+            // the same as ForceEvaluator.kernel, a source on top of the point gives NaN just like the scalar one
+            var f = DoubleVector.fromArray(SPECIES, m, i).mul(invDist.mul(invDist.sqrt().min(1.0)));
+            sumX = dx.fma(f, sumX);
+            sumY = dy.fma(f, sumY);
+        }
+
+        this.ax = sumX.reduceLanes(VectorOperators.ADD);
+        this.ay = sumY.reduceLanes(VectorOperators.ADD);
+        this.accelerateScalar(px, py, x, y, m, i, to);
+    }
+
+    @Override
+    boolean isVectorised() {
+        return true;
+    }
+}
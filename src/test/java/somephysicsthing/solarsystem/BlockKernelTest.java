@@ -0,0 +1,79 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BlockKernelTest {
+    @Test
+    public void matchesScalarKernel() {
+        var gen = new Random(0);
+        var n = 101;
+        var x = new double[n];
+        var y = new double[n];
+        var m = new double[n];
+
+        for (var i = 0; i < n; i++) {
+            x[i] = gen.nextGaussian() * 100;
+            y[i] = gen.nextGaussian() * 100;
+            m[i] = gen.nextDouble();
+        }
+
+        // whichever kernel this JVM can load, including the sources left over after the last full vector
+        var kernel = BlockKernel.create();
+        var scalar = new BlockKernel();
+
+        for (var to : new int[]{0, 1, 7, 64, n}) {
+            kernel.accelerate(3, -4, x, y, m, 0, to);
+            scalar.accelerate(3, -4, x, y, m, 0, to);
+
+            assertEquals(scalar.ax, kernel.ax, 1e-9 * (1 + Math.abs(scalar.ax)));
+            assertEquals(scalar.ay, kernel.ay, 1e-9 * (1 + Math.abs(scalar.ay)));
+        }
+    }
+
+    @Test
+    public void vectorKernelMatchesScalarKernel() {
+        var kernel = BlockKernel.create();
+
+        // the build sets this when it built the kernel, then not loading it is a failure rather than a skip
+        if (Boolean.getBoolean("somephysicsthing.vectorKernel")) {
+            assertTrue("the vector kernel was built but not loaded", kernel.isVectorised());
+        }
+        assumeTrue(kernel.isVectorised());
+
+        var gen = new Random(1);
+        var n = 1000;
+        var x = new double[n];
+        var y = new double[n];
+        var m = new double[n];
+
+        for (var i = 0; i < n; i++) {
+            x[i] = gen.nextGaussian() * 100;
+            y[i] = gen.nextGaussian() * 100;
+            m[i] = gen.nextDouble();
+        }
+
+        // sources on top of the point and inside the core too
+        x[5] = 3;
+        y[5] = -4;
+        x[6] = 3.5;
+        y[6] = -4;
+
+        var scalar = new BlockKernel();
+
+        // ranges that don't start or end on a whole vector
+        for (var from : new int[]{0, 1, 3, 5}) {
+            for (var to : new int[]{from, from + 1, from + 7, 64, 257, n}) {
+                kernel.accelerate(3, -4, x, y, m, from, to);
+                scalar.accelerate(3, -4, x, y, m, from, to);
+
+                assertEquals(scalar.ax, kernel.ax, 1e-9 * (1 + Math.abs(scalar.ax)));
+                assertEquals(scalar.ay, kernel.ay, 1e-9 * (1 + Math.abs(scalar.ay)));
+            }
+        }
+    }
+}
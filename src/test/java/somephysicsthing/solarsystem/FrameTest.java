@@ -0,0 +1,88 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameTest {
+    private final Particles particles = new Particles(500);
+    private final ArrayList<Planet> planets = new ArrayList<>();
+    private final MassSimulation simulation;
+
+    public FrameTest() {
+        var gen = new Random(0);
+
+        for (var i = 0; i < 500; i++) {
+            var pos = new Vec2((gen.nextDouble() - 0.5) * 1200, (gen.nextDouble() - 0.5) * 1200);
+            this.planets.add(new Planet(this.particles, pos, new Vec2(0, 0), gen.nextDouble() * 1e6));
+        }
+
+        this.simulation = new MassSimulation(this.particles, 6000, 6000);
+        this.simulation.runSimulation(0.01);
+    }
+
+    private Frame levelOfDetail(double minSize) {
+        var frame = new Frame();
+        frame.captureLevelOfDetail(1, this.simulation.getTree(), this.planets, new ArrayList<>(), minSize);
+        return frame;
+    }
+
+    @Test
+    public void fullDetailHasEveryBody() {
+        var all = new Frame();
+        all.capture(1, this.planets, new ArrayList<>());
+        var frame = this.levelOfDetail(0);
+
+        assertEquals(this.planets.size(), frame.count);
+
+        // in tree order rather than planet order
+        var expected = Arrays.copyOf(all.x, all.count);
+        var actual = Arrays.copyOf(frame.x, frame.count);
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        assertArrayEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void smallNodesAreOneBody() {
+        var tree = this.simulation.getTree();
+        var root = tree.root();
+        var frame = this.levelOfDetail(Double.POSITIVE_INFINITY);
+
+        assertEquals(1, frame.count);
+        assertEquals(tree.getCentreOfMassX(root), frame.x[0], 0);
+        assertEquals(tree.getCentreOfMassY(root), frame.y[0], 0);
+        assertEquals(Planet.diameterOf(tree.getMass(root)), frame.diameter[0], 0);
+
+        // coarser than the leaves but finer than the root
+        var count = this.levelOfDetail(300).count;
+        assertTrue(count > 1 && count < this.planets.size());
+    }
+
+    @Test
+    public void crowdedLeavesAreOneBody() {
+        var particles = new Particles(21);
+        var planets = new ArrayList<Planet>();
+
+        // all in one leaf at the maximum depth, far smaller than a pixel
+        for (var i = 0; i < 20; i++) {
+            planets.add(new Planet(particles, new Vec2(100, 100), new Vec2(0, 0), 1));
+        }
+        planets.add(new Planet(particles, new Vec2(100, 100), new Vec2(0, 0), 1e9, "#00ffff"));
+
+        var simulation = new MassSimulation(particles, 6000, 6000);
+        simulation.setDirectThreshold(0);
+        simulation.runSimulation(0.01);
+
+        var frame = new Frame();
+        frame.captureLevelOfDetail(1, simulation.getTree(), planets, new ArrayList<>(), 10);
+
+        assertEquals(1, frame.count);
+        assertEquals(0x00ffff, frame.rgb[0]);
+        assertEquals(Planet.diameterOf(20 + 1e9), frame.diameter[0], 1e-9);
+    }
+}
@@ -0,0 +1,157 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+import somephysicsthing.solarsystem.quadtree.FlatQuadtree;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class GravityEngineTest {
+    private static final int N = 3000;
+    private static final double G = 1e-6;
+
+    /**
+     * relative error of the engine's accelerations against summing over every pair of bodies
+     */
+    private static double error(GravityEngine engine, ForkJoinPool pool) {
+        return error(engine, pool, false);
+    }
+
+    /**
+     * @param potential if true compare the potentials instead of the accelerations
+     */
+    private static double error(GravityEngine engine, ForkJoinPool pool, boolean potential) {
+        var gen = new Random(0);
+        var x = new double[N];
+        var y = new double[N];
+        var m = new double[N];
+
+        for (var i = 0; i < N; i++) {
+            x[i] = gen.nextGaussian() * 300;
+            y[i] = gen.nextGaussian() * 300;
+            m[i] = gen.nextDouble() * 1e6;
+        }
+
+        var tree = new FlatQuadtree(6000, 6000, 8, 24);
+        tree.setPool(pool);
+        tree.build(x, y, N);
+        tree.computeMonopoles(x, y, m);
+        engine.prepare(tree, N, pool);
+
+        var forces = engine.newEvaluator(tree);
+        forces.findPotential = potential;
+        var error = 0.0;
+        var norm = 0.0;
+
+        for (var i = 0; i < N; i++) {
+            var ax = 0.0;
+            var ay = 0.0;
+            var phi = 0.0;
+
+            for (var j = 0; j < N; j++) {
+                if (i == j)
+                    continue;
+
+                var f = G * m[j] * ForceEvaluator.kernel(x[j] - x[i], y[j] - y[i]);
+                ax += (x[j] - x[i]) * f;
+                ay += (y[j] - y[i]) * f;
+                phi += G * m[j] * ForceEvaluator.potentialKernel(x[j] - x[i], y[j] - y[i]);
+            }
+
+            forces.accelerate(i, x[i], y[i], x[i], y[i]);
+
+            if (potential) {
+                error += Math.abs(forces.potential - phi);
+                norm += phi;
+            } else {
+                error += Math.hypot(forces.ax - ax, forces.ay - ay);
+                norm += Math.hypot(ax, ay);
+            }
+        }
+
+        return error / norm;
+    }
+
+    @Test
+    public void directSumIsExact() {
+        var pool = ForkJoinPool.commonPool();
+
+        assertTrue(error(new DirectSum(G), pool) < 1e-12);
+    }
+
+    @Test
+    public void enginesFindThePotential() {
+        var pool = ForkJoinPool.commonPool();
+
+        assertTrue(error(new DirectSum(G), pool, true) < 1e-12);
+        assertTrue(error(new BarnesHut(0.8, G), pool, true) < 1e-2);
+        assertTrue(error(new BarnesHut(0.8, G, true), pool, true) < 1e-2);
+        assertTrue(error(new FastMultipole(G, 4, 0.5), pool, true) < 1e-4);
+    }
+
+    @Test
+    public void directSumBlocksMatchSingleBodies() {
+        var gen = new Random(1);
+        var x = new double[N];
+        var y = new double[N];
+        var m = new double[N];
+
+        for (var i = 0; i < N; i++) {
+            x[i] = (gen.nextDouble() - 0.5) * 6000;
+            y[i] = (gen.nextDouble() - 0.5) * 6000;
+            m[i] = gen.nextDouble();
+        }
+
+        var tree = new FlatQuadtree(6000, 6000, 8, 24);
+        tree.buildMorton(x, y, N);
+        tree.computeMonopoles(x, y, m);
+        // every body is a source
+        assertEquals(N, tree.getCount(tree.root()));
+        var engine = new DirectSum(G);
+        engine.prepare(tree, N, ForkJoinPool.commonPool());
+
+        // in tree order bodies are summed a block at a time, one at a time otherwise
+        var blocks = engine.newEvaluator(tree);
+        var single = engine.newEvaluator(tree);
+
+        for (var k = 0; k < N; k++) {
+            var i = tree.getBody(k);
+            blocks.accelerate(i, x[i], y[i], x[i], y[i]);
+            single.accelerate(i, x[i], y[i], x[i] + 1e-9, y[i]);
+
+            assertEquals(single.ax, blocks.ax, 1e-6 * Math.abs(single.ax));
+            assertEquals(single.ay, blocks.ay, 1e-6 * Math.abs(single.ay));
+        }
+    }
+
+    @Test
+    public void groupWalkMatchesTreeWalk() {
+        var pool = ForkJoinPool.commonPool();
+
+        var walk = error(new BarnesHut(0.8, G), pool);
+        var groupWalk = error(new BarnesHut(0.8, G, true), pool);
+        assertTrue(groupWalk < 2e-2);
+        assertTrue(groupWalk <= walk * 1.1);
+    }
+
+    @Test
+    public void fastMultipoleMatchesDirectSum() {
+        var pool = ForkJoinPool.commonPool();
+
+        assertTrue(error(new FastMultipole(G, 4, 0.5), pool) < 1e-3);
+        assertTrue(error(new FastMultipole(G, 8, 0.5), pool) < 1e-5);
+    }
+
+    @Test
+    public void higherMultipoleOrdersAreMoreAccurate() {
+        var pool = new ForkJoinPool(4);
+
+        var low = error(new FastMultipole(G, 2, 0.7), pool);
+        var high = error(new FastMultipole(G, 6, 0.7), pool);
+        assertTrue(high < low / 10);
+
+        pool.shutdown();
+    }
+}
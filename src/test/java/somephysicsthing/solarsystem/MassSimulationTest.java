@@ -0,0 +1,240 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MassSimulationTest {
+    private static final double G = 1e-6;
+
+    /**
+     * kinetic plus potential energy, the potential of two bodies r apart is 2 * g * m1 * m2 * sqrt(r) outside 1
+     */
+    private static double energy(Particles p) {
+        var energy = 0.0;
+
+        for (var i = 0; i < p.size(); i++) {
+            energy += 0.5 * p.mass[i] * (p.vx[i] * p.vx[i] + p.vy[i] * p.vy[i]);
+
+            for (var j = i + 1; j < p.size(); j++) {
+                var r = Math.hypot(p.x[i] - p.x[j], p.y[i] - p.y[j]);
+                energy += 2 * G * p.mass[i] * p.mass[j] * Math.sqrt(r);
+            }
+        }
+
+        return energy;
+    }
+
+    /**
+     * a light body in a circular orbit around a heavy one
+     */
+    private static Particles orbit() {
+        var p = new Particles(2);
+        var mass = 1e9;
+        var r = 200.0;
+
+        new Planet(p, new Vec2(0, 0), new Vec2(0, 0), mass);
+        new Planet(p, new Vec2(r, 0), new Vec2(0, Math.sqrt(G * mass * Math.sqrt(r))), 1);
+
+        return p;
+    }
+
+    @Test
+    public void leapfrogConservesEnergy() {
+        var p = orbit();
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        // through the tree, two bodies would otherwise be summed directly
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.LEAPFROG);
+
+        var start = energy(p);
+
+        // about twenty orbits
+        for (var step = 0; step < 2000; step++) {
+            simulation.runSimulation(0.1);
+        }
+
+        assertEquals(start, energy(p), 1e-5 * start);
+    }
+
+    @Test
+    public void leapfrogAcceleratesAddedBodies() {
+        var p = orbit();
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        // through the tree, two bodies would otherwise be summed directly
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.LEAPFROG);
+        simulation.runSimulation(0.1);
+
+        var added = new Planet(p, new Vec2(-200, 0), new Vec2(0, 0), 1);
+        simulation.runSimulation(0.1);
+
+        // pulled towards the heavy body at the origin
+        assertTrue(added.getVelocity().x > 0);
+        assertFalse(Double.isNaN(p.ax[added.getIndex()]));
+    }
+
+    @Test
+    public void blockTimestepsOnlyShortenStepsWhereNeeded() {
+        var p = orbit();
+        // a much wider orbit, this one can take far longer steps
+        var r = 2000.0;
+        new Planet(p, new Vec2(-r, 0), new Vec2(0, -Math.sqrt(G * 1e9 * Math.sqrt(r))), 1);
+
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        // through the tree, two bodies would otherwise be summed directly
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.BLOCK_TIMESTEPS);
+        simulation.setMaxTimeBin(6);
+
+        var start = energy(p);
+
+        // about ten orbits of the inner body
+        for (var step = 0; step < 1000; step++) {
+            simulation.runSimulation(0.1);
+        }
+
+        assertEquals(start, energy(p), 1e-5 * start);
+        assertTrue(p.timeBin[1] > p.timeBin[2]);
+        // every body on the shortest step would take 64 evaluations per step each
+        assertTrue(simulation.getForceEvaluations() < 2 * 64 * 1000);
+    }
+
+    @Test
+    public void blockTimestepBinsFollowTheStep() {
+        var p = orbit();
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.BLOCK_TIMESTEPS);
+        simulation.setMaxTimeBin(6);
+
+        // the same orbit in steps far shorter than it needs
+        var reference = orbit();
+        var referenceSimulation = new MassSimulation(reference, 6000, 6000, 1.2, G);
+        referenceSimulation.setIntegrator(Integrator.LEAPFROG);
+
+        for (var step = 0; step < 510; step++) {
+            referenceSimulation.runSimulation(0.001);
+        }
+
+        // a short block wants no substeps at all, the long one after it needs them
+        simulation.runSimulation(0.01);
+        simulation.runSimulation(0.5);
+
+        // taking the long block in one step instead lands most of a unit away
+        assertEquals(0, Math.hypot(p.x[1] - reference.x[1], p.y[1] - reference.y[1]), 0.05);
+        assertTrue(p.timeBin[1] >= 4);
+    }
+
+    @Test
+    public void lowerMaxTimeBinMidRun() {
+        var p = orbit();
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.BLOCK_TIMESTEPS);
+        // the orbit wants steps of about 0.03, so deeper than bin 2
+        simulation.setMaxTimeBin(6);
+        simulation.runSimulation(1.0);
+        assertTrue(p.timeBin[1] > 2);
+
+        simulation.setMaxTimeBin(2);
+        simulation.runSimulation(1.0);
+
+        assertTrue(p.timeBin[0] <= 2 && p.timeBin[1] <= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxTimeBinMustFitInAnInt() {
+        new MassSimulation(orbit(), 6000, 6000, 1.2, G).setMaxTimeBin(31);
+    }
+
+    @Test
+    public void controllerShortensStepsForCloseOrbits() {
+        var p = orbit();
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        // through the tree, two bodies would otherwise be summed directly
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.LEAPFROG);
+        var controller = new TimestepController(0.001, 1.0);
+
+        var start = energy(p);
+
+        for (var step = 0; step < 2000; step++) {
+            simulation.runSimulation(controller);
+        }
+
+        // the orbit at 200 wants steps of about 0.03
+        assertTrue(controller.getLast() < 0.05);
+        assertTrue(controller.getLast() > 0.01);
+        assertEquals(start, energy(p), 1e-5 * start);
+    }
+
+    @Test
+    public void diagnosticsMatchTheState() {
+        var p = orbit();
+        var simulation = new MassSimulation(p, 6000, 6000, 1.2, G);
+        // through the tree, two bodies would otherwise be summed directly
+        simulation.setDirectThreshold(0);
+        simulation.setIntegrator(Integrator.LEAPFROG);
+        simulation.setDiagnostics(true);
+
+        for (var step = 0; step < 100; step++) {
+            simulation.runSimulation(0.1);
+        }
+
+        var diagnostics = simulation.getDiagnostics();
+        assertNotNull(diagnostics);
+        assertEquals(energy(p), diagnostics.getEnergy(), 1e-9 * energy(p));
+
+        var momentumX = 0.0;
+        var angularMomentum = 0.0;
+        for (var i = 0; i < p.size(); i++) {
+            momentumX += p.mass[i] * p.vx[i];
+            angularMomentum += p.mass[i] * (p.x[i] * p.vy[i] - p.y[i] * p.vx[i]);
+        }
+
+        assertEquals(momentumX, diagnostics.getMomentumX(), 1e-9 * Math.abs(momentumX));
+        assertEquals(angularMomentum, diagnostics.getAngularMomentum(), 1e-9 * Math.abs(angularMomentum));
+    }
+
+    private static Particles cluster() {
+        var p = new Particles(50);
+        var gen = new Random(0);
+
+        for (var i = 0; i < 50; i++) {
+            var pos = new Vec2((gen.nextDouble() - 0.5) * 1200, (gen.nextDouble() - 0.5) * 1200);
+            var vel = new Vec2((gen.nextDouble() - 0.5) * 100, (gen.nextDouble() - 0.5) * 100);
+            new Planet(p, pos, vel, gen.nextDouble() * 1e6);
+        }
+
+        return p;
+    }
+
+    @Test
+    public void smallSystemsSkipTheTree() {
+        var direct = cluster();
+        var directSimulation = new MassSimulation(direct, 6000, 6000, 1.2, G);
+        directSimulation.setIntegrator(Integrator.LEAPFROG);
+
+        // a theta of 0 opens every node, so the tree is exact too
+        var tree = cluster();
+        var treeSimulation = new MassSimulation(tree, 6000, 6000, 0, G);
+        treeSimulation.setIntegrator(Integrator.LEAPFROG);
+        treeSimulation.setDirectThreshold(0);
+
+        for (var step = 0; step < 10; step++) {
+            assertTrue(directSimulation.runSimulation(0.1).isEmpty());
+            treeSimulation.runSimulation(0.1);
+        }
+
+        assertNull(directSimulation.getTree());
+        assertNotNull(treeSimulation.getTree());
+
+        for (var i = 0; i < direct.size(); i++) {
+            assertEquals(tree.x[i], direct.x[i], 1e-9);
+            assertEquals(tree.y[i], direct.y[i], 1e-9);
+        }
+    }
+}
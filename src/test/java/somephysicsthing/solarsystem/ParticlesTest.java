@@ -0,0 +1,42 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class ParticlesTest {
+    @Test
+    public void add() {
+        var particles = new Particles(1);
+
+        var a = new Planet(particles, new Vec2(1, 2), new Vec2(3, 4), 5);
+        var b = new Planet(particles, new Vec2(6, 7), new Vec2(8, 9), 10);
+
+        assertEquals(particles.size(), 2);
+        assertEquals(a.getPos(), new Vec2(1, 2));
+        assertEquals(b.getVelocity(), new Vec2(8, 9));
+        assertEquals(b.getMass(), 10, 0.1);
+    }
+
+    @Test
+    public void retain() {
+        var particles = new Particles(4);
+        var planets = new ArrayList<Planet>();
+
+        for (var i = 0; i < 4; i++) {
+            planets.add(new Planet(particles, new Vec2(i, i), new Vec2(0, 0), i));
+        }
+
+        planets.remove(2);
+        planets.remove(0);
+        particles.retain(planets);
+
+        assertEquals(particles.size(), 2);
+        assertEquals(planets.get(0).getIndex(), 0);
+        assertEquals(planets.get(0).getPos(), new Vec2(1, 1));
+        assertEquals(planets.get(1).getPos(), new Vec2(3, 3));
+        assertEquals(particles.id[1], 3);
+    }
+}
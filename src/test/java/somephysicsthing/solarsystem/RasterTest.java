@@ -0,0 +1,77 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import static org.junit.Assert.*;
+
+public class RasterTest {
+    private static final int SIZE = 64;
+
+    private static BufferedImage image() {
+        return new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static Raster raster(BufferedImage image) {
+        return new Raster(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), SIZE, SIZE);
+    }
+
+    /**
+     * how many pixels are different between two images
+     */
+    private static int differences(BufferedImage a, BufferedImage b) {
+        var count = 0;
+
+        for (var y = 0; y < SIZE; y++) {
+            for (var x = 0; x < SIZE; x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Test
+    public void rectanglesMatchAwt() {
+        var expected = image();
+        var actual = image();
+        var g = expected.createGraphics();
+        g.setColor(new Color(0x003300));
+
+        // including ones hanging off the edges
+        int[][] rects = {{5, 5, 20, 10}, {-10, 30, 30, 50}, {50, -5, 30, 30}, {0, 0, 0, 0}};
+        for (var r : rects) {
+            g.drawRect(r[0], r[1], r[2], r[3]);
+            raster(actual).drawRectangle(r[0], r[1], r[2], r[3], 0x003300);
+        }
+
+        assertEquals(0, differences(expected, actual));
+    }
+
+    @Test
+    public void circlesAreCloseToAwt() {
+        for (var d = 1; d < 20; d++) {
+            var expected = image();
+            var actual = image();
+            var g = expected.createGraphics();
+            g.setColor(new Color(0xff00ff));
+            g.fillOval(10, 12, d, d);
+            raster(actual).fillCircle(10, 12, d, 0xff00ff);
+
+            // only pixels around the edge may differ
+            assertTrue("diameter " + d, differences(expected, actual) <= 2 * d + 2);
+        }
+    }
+
+    @Test
+    public void parseColour() {
+        assertEquals(0xff00ff, Raster.parseColour("#ff00ff"));
+        assertEquals(0x00ff00, Raster.parseColour("GREEN"));
+        assertEquals(0xffffff, Raster.parseColour("not a colour"));
+    }
+}
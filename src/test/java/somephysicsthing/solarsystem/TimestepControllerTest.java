@@ -0,0 +1,42 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimestepControllerTest {
+    @Test
+    public void stepsGrowSlowlyAndStayInBounds() {
+        var controller = new TimestepController(0.01, 1.0);
+
+        // nothing suggested yet, start from the bottom
+        assertEquals(0.01, controller.next(Double.NaN), 0);
+        assertEquals(0.02, controller.next(10), 0);
+        assertEquals(0.04, controller.next(Double.POSITIVE_INFINITY), 0);
+        assertEquals(0.03, controller.next(0.03), 0);
+        assertEquals(0.01, controller.next(1e-9), 0);
+
+        for (var i = 0; i < 20; i++) {
+            controller.next(10);
+        }
+
+        assertEquals(1.0, controller.getLast(), 0);
+    }
+
+    @Test
+    public void historyKeepsTheMostRecentSteps() {
+        var controller = new TimestepController(1, 5000);
+        controller.setMaxGrowth(Double.POSITIVE_INFINITY);
+
+        for (var i = 1; i <= 3000; i++) {
+            controller.next(i);
+        }
+
+        var history = controller.getHistory();
+        assertEquals(3000, controller.getSteps());
+        assertEquals(1024, history.length);
+        assertEquals(3000 - 1023, history[0], 0);
+        assertEquals(3000, history[history.length - 1], 0);
+        assertEquals(3000.0 * 3001 / 2, controller.getElapsed(), 0);
+    }
+}
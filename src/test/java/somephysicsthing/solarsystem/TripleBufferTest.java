@@ -0,0 +1,59 @@
+package somephysicsthing.solarsystem;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+    private static class Value {
+        long written;
+        long copy;
+    }
+
+    @Test
+    public void latestIsTheLastPublished() {
+        var buffer = new TripleBuffer<>(Value::new);
+
+        assertEquals(0, buffer.getLatest().written);
+
+        buffer.getBack().written = 1;
+        buffer.publish();
+        buffer.getBack().written = 2;
+        buffer.publish();
+
+        // 1 was dropped
+        assertEquals(2, buffer.getLatest().written);
+        assertEquals(2, buffer.getLatest().written);
+
+        buffer.getBack().written = 3;
+        assertEquals(2, buffer.getLatest().written);
+        buffer.publish();
+        assertEquals(3, buffer.getLatest().written);
+    }
+
+    @Test
+    public void consumerNeverSeesAHalfWrittenValue() throws InterruptedException {
+        var buffer = new TripleBuffer<>(Value::new);
+        var last = 200000L;
+
+        var producer = new Thread(() -> {
+            for (var i = 1L; i <= last; i++) {
+                var value = buffer.getBack();
+                value.written = i;
+                value.copy = i;
+                buffer.publish();
+            }
+        });
+        producer.start();
+
+        var seen = 0L;
+        while (seen < last) {
+            var value = buffer.getLatest();
+            assertEquals(value.written, value.copy);
+            assertTrue(value.written >= seen);
+            seen = value.written;
+        }
+
+        producer.join();
+    }
+}
@@ -0,0 +1,249 @@
+package somephysicsthing.solarsystem.quadtree;
+
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class FlatQuadtreeTest {
+    private static final int N = 1000;
+
+    @Nonnull private final double[] x = new double[N];
+    @Nonnull private final double[] y = new double[N];
+
+    public FlatQuadtreeTest() {
+        var gen = new Random(0);
+
+        for (var i = 0; i < N; i++) {
+            this.x[i] = (gen.nextDouble() - 0.5) * 100;
+            this.y[i] = (gen.nextDouble() - 0.5) * 100;
+        }
+    }
+
+    /**
+     * check that every node's bodies lie in its region and that children partition their parent
+     */
+    private void assertWellFormed(@Nonnull FlatQuadtree tree, int node) {
+        var region = tree.getRegion(node);
+
+        for (var k = tree.getFirst(node); k < tree.getFirst(node) + tree.getCount(node); k++) {
+            var body = tree.getBody(k);
+            assertTrue(this.x[body] >= region.left() && this.x[body] <= region.right());
+            assertTrue(this.y[body] >= region.bottom() && this.y[body] <= region.top());
+        }
+
+        if (tree.isLeaf(node))
+            return;
+
+        var c = tree.getChild(node);
+        var total = 0;
+        var next = tree.getFirst(node);
+
+        for (var i = c; i < c + 4; i++) {
+            assertEquals(tree.getFirst(i), next);
+            next += tree.getCount(i);
+            total += tree.getCount(i);
+            this.assertWellFormed(tree, i);
+        }
+
+        assertEquals(total, tree.getCount(node));
+    }
+
+    @Test
+    public void build() {
+        var tree = new FlatQuadtree(100, 100);
+        tree.build(this.x, this.y, N);
+
+        assertEquals(tree.getCount(tree.root()), N);
+        this.assertWellFormed(tree, tree.root());
+    }
+
+    @Test
+    public void rebuild() {
+        var tree = new FlatQuadtree(100, 100, 4, 24);
+        tree.build(this.x, this.y, N);
+        var nodes = tree.getNodeCount();
+
+        tree.build(this.x, this.y, N);
+
+        assertEquals(tree.getNodeCount(), nodes);
+        this.assertWellFormed(tree, tree.root());
+    }
+
+    @Test
+    public void outsideBodiesAreSkipped() {
+        var tree = new FlatQuadtree(10, 10);
+        tree.build(this.x, this.y, N);
+
+        assertTrue(tree.getCount(tree.root()) < N);
+        this.assertWellFormed(tree, tree.root());
+    }
+
+    @Test
+    public void buildMorton() {
+        var tree = new FlatQuadtree(100, 100, 4, 24);
+        tree.buildMorton(this.x, this.y, N);
+
+        assertEquals(tree.getCount(tree.root()), N);
+        this.assertWellFormed(tree, tree.root());
+
+        var partitioned = new FlatQuadtree(100, 100, 4, 24);
+        partitioned.build(this.x, this.y, N);
+        assertEquals(tree.getNodeCount(), partitioned.getNodeCount());
+    }
+
+    @Test
+    public void buildInParallel() {
+        var gen = new Random(1);
+        var n = 100000;
+        var x = new double[n];
+        var y = new double[n];
+
+        for (var i = 0; i < n; i++) {
+            x[i] = gen.nextGaussian() * 10;
+            y[i] = gen.nextGaussian() * 10;
+        }
+
+        var pool = new ForkJoinPool(4);
+        var single = new ForkJoinPool(1);
+
+        var sequential = new FlatQuadtree(100, 100, 8, 24);
+        sequential.setPool(single);
+        sequential.build(x, y, n);
+
+        var parallel = new FlatQuadtree(100, 100, 8, 24);
+        parallel.setPool(pool);
+        parallel.build(x, y, n);
+
+        var morton = new FlatQuadtree(100, 100, 8, 24);
+        morton.setPool(pool);
+        morton.buildMorton(x, y, n);
+
+        assertEquals(parallel.getCount(parallel.root()), sequential.getCount(sequential.root()));
+        assertEquals(parallel.getRegions().size(), sequential.getNodeCount());
+        assertEquals(morton.getRegions().size(), sequential.getNodeCount());
+
+        var m = new double[n];
+        Arrays.fill(m, 1.0);
+        sequential.computeMonopoles(x, y, m);
+        parallel.computeMonopoles(x, y, m);
+
+        assertEquals(parallel.getMass(parallel.root()), sequential.getCount(sequential.root()), 1e-6);
+        assertEquals(parallel.getCentreOfMassX(parallel.root()), sequential.getCentreOfMassX(sequential.root()), 1e-9);
+
+        pool.shutdown();
+        single.shutdown();
+    }
+
+    @Test
+    public void update() {
+        var tree = new FlatQuadtree(100, 100, 2, 24);
+        tree.build(this.x, this.y, N);
+
+        // nudge everything a little and throw a few bodies across the region
+        for (var i = 0; i < N; i++) {
+            this.x[i] += 0.01;
+            if (i % 100 == 0)
+                this.y[i] = -this.y[i];
+        }
+        this.x[1] = 1000;
+
+        assertTrue(tree.update(this.x, this.y, N));
+        assertEquals(tree.getCount(tree.root()), N - 1);
+        this.assertWellFormed(tree, tree.root());
+
+        var rebuilt = new FlatQuadtree(100, 100, 2, 24);
+        rebuilt.build(this.x, this.y, N);
+        assertEquals(tree.getRegions().size(), rebuilt.getRegions().size());
+
+        // bring the body back into the tree
+        this.x[1] = 0;
+        assertTrue(tree.update(this.x, this.y, N));
+        assertEquals(tree.getCount(tree.root()), N);
+        this.assertWellFormed(tree, tree.root());
+    }
+
+    @Test
+    public void updateRebuildsWhenTooManyMove() {
+        var tree = new FlatQuadtree(100, 100);
+        tree.build(this.x, this.y, N);
+
+        for (var i = 0; i < N; i++) {
+            this.x[i] = -this.x[i];
+        }
+
+        assertFalse(tree.update(this.x, this.y, N));
+        this.assertWellFormed(tree, tree.root());
+        assertFalse(tree.update(this.x, this.y, N / 2));
+    }
+
+    @Test
+    public void computeMonopoles() {
+        var tree = new FlatQuadtree(100, 100);
+        var m = new double[N];
+        var totalMass = 0.0;
+        var sumX = 0.0;
+
+        for (var i = 0; i < N; i++) {
+            m[i] = i % 7;
+            totalMass += m[i];
+            sumX += m[i] * this.x[i];
+        }
+
+        tree.build(this.x, this.y, N);
+        tree.computeMonopoles(this.x, this.y, m);
+
+        assertEquals(tree.getMass(tree.root()), totalMass, 1e-6);
+        assertEquals(tree.getCentreOfMassX(tree.root()), sumX / totalMass, 1e-6);
+
+        var c = tree.getChild(tree.root());
+        var childMass = 0.0;
+        for (var i = c; i < c + 4; i++) {
+            childMass += tree.getMass(i);
+        }
+        assertEquals(childMass, totalMass, 1e-6);
+    }
+
+    @Test
+    public void computeQuadrupoles() {
+        var tree = new FlatQuadtree(100, 100, 4, 24);
+        var m = new double[N];
+
+        for (var i = 0; i < N; i++) {
+            m[i] = 1 + i % 7;
+        }
+
+        tree.setQuadrupoles(true);
+        tree.build(this.x, this.y, N);
+        tree.computeMonopoles(this.x, this.y, m);
+
+        var root = tree.root();
+        var xx = 0.0;
+        var xy = 0.0;
+        var yy = 0.0;
+
+        for (var i = 0; i < N; i++) {
+            var dx = this.x[i] - tree.getCentreOfMassX(root);
+            var dy = this.y[i] - tree.getCentreOfMassY(root);
+            xx += m[i] * dx * dx;
+            xy += m[i] * dx * dy;
+            yy += m[i] * dy * dy;
+        }
+
+        assertEquals(tree.getQuadrupoleXX(root), xx, 1e-6 * xx);
+        assertEquals(tree.getQuadrupoleXY(root), xy, 1e-6 * xx);
+        assertEquals(tree.getQuadrupoleYY(root), yy, 1e-6 * yy);
+    }
+
+    @Test
+    public void coincidentBodiesStopAtMaxDepth() {
+        var tree = new FlatQuadtree(100, 100, 1, 8);
+        tree.build(new double[]{1, 1, 1}, new double[]{2, 2, 2}, 3);
+
+        assertEquals(tree.getCount(tree.root()), 3);
+    }
+}
@@ -5,6 +5,9 @@ import somephysicsthing.solarsystem.propertytraits.HasPosition;
 import somephysicsthing.solarsystem.Vec2;
 
 import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
@@ -33,4 +36,109 @@ public class QuadtreeTest {
 
         assertTrue(tree.insert(new TestPoint(20, 20, 100)));
     }
+
+    @Test
+    public void applyFoldParallel() {
+        var gen = new Random(0);
+        Quadtree<Vec2Point> tree = new Quadtree<>(100, 100);
+
+        for (var i = 0; i < 1000; i++) {
+            tree.insert(new Vec2Point(new Vec2((gen.nextDouble() - 0.5) * 100, (gen.nextDouble() - 0.5) * 100)));
+        }
+
+        var pool = new ForkJoinPool(4);
+
+        assertEquals((int) tree.applyFold(new CountElems()), 1000);
+        assertEquals((int) tree.applyFoldParallel(new CountElems(), pool), 1000);
+
+        pool.shutdown();
+    }
+
+    @Test
+    public void leavesHoldUpToCapacity() {
+        class MaxLeafSize implements QuadtreeFolder<Vec2Point, Integer> {
+            @Nonnull
+            @Override
+            public Integer visitEmpty(@Nonnull List<Direction> path) {
+                return 0;
+            }
+
+            @Nonnull
+            @Override
+            public Integer visitLeaf(@Nonnull List<Direction> path, @Nonnull List<Vec2Point> elems) {
+                return elems.size();
+            }
+
+            @Nonnull
+            @Override
+            public Integer visitQuad(@Nonnull List<Direction> path, Integer nw, Integer ne, Integer sw, Integer se) {
+                return Math.max(Math.max(nw, ne), Math.max(sw, se));
+            }
+        }
+
+        var gen = new Random(1);
+        Quadtree<Vec2Point> tree = new Quadtree<>(100, 100, 8, 24);
+
+        for (var i = 0; i < 1000; i++) {
+            tree.insert(new Vec2Point(new Vec2((gen.nextDouble() - 0.5) * 100, (gen.nextDouble() - 0.5) * 100)));
+        }
+
+        assertEquals(1000, (int) tree.applyFold(new CountElems()));
+        assertTrue(tree.applyFold(new MaxLeafSize()) <= 8);
+        assertTrue(tree.getRegions().size() < 1000);
+    }
+
+    @Test
+    public void coincidentPointsStopAtMaxDepth() {
+        Quadtree<Vec2Point> tree = new Quadtree<>(100, 100, 1, 10);
+
+        for (var i = 0; i < 5; i++) {
+            assertTrue(tree.insert(new Vec2Point(new Vec2(10, 10))));
+        }
+
+        assertEquals(5, (int) tree.applyFold(new CountElems()));
+
+        for (var path : tree.getRegions().keySet()) {
+            assertTrue(path.size() <= 10);
+        }
+    }
+
+    private static class CountElems implements QuadtreeFolder<Vec2Point, Integer> {
+        @Nonnull
+        @Override
+        public Integer visitEmpty(@Nonnull List<Direction> path) {
+            return 0;
+        }
+
+        @Nonnull
+        @Override
+        public Integer visitLeaf(@Nonnull List<Direction> path, @Nonnull List<Vec2Point> elems) {
+            return elems.size();
+        }
+
+        @Nonnull
+        @Override
+        public Integer visitQuad(@Nonnull List<Direction> path, Integer nw, Integer ne, Integer sw, Integer se) {
+            return nw + ne + sw + se;
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+
+    private static class Vec2Point implements HasPosition {
+        @Nonnull private final Vec2 pos;
+
+        private Vec2Point(@Nonnull Vec2 pos) {
+            this.pos = pos;
+        }
+
+        @Nonnull
+        @Override
+        public Vec2 getPos() {
+            return this.pos;
+        }
+    }
 }